@@ -0,0 +1,60 @@
+package com.droibit.accountmushroom;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * {@link AccountProvider}から読み込むための定数。<br>
+ * 読み込むには{@link #PERMISSION_READ}の権限が必要になる（同じ署名のアプリのみ取得できる）。
+ *
+ * @author kumagai
+ */
+public final class AccountContract {
+
+    /** プロバイダのオーソリティ */
+    public static final String AUTHORITY = "com.droibit.accountmushroom.accounts";
+
+    /** 読み込みに必要な権限 */
+    public static final String PERMISSION_READ = "com.droibit.accountmushroom.permission.READ_ACCOUNTS";
+
+    private AccountContract() {
+    }
+
+    /**
+     * 非表示にするアカウントタイプを除いたアカウントの一覧
+     */
+    public static final class Accounts implements BaseColumns {
+
+        /** アカウントの一覧のURI */
+        public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/accounts");
+
+        /** 一覧のMIMEタイプ */
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.com.droibit.accountmushroom.account";
+
+        /** アカウント名 */
+        public static final String NAME = "name";
+
+        /** グループのタイトル（アカウントタイプのラベル名） */
+        public static final String GROUP_TITLE = "group_title";
+
+        /** グループを代表するアカウントタイプ */
+        public static final String ACCOUNT_TYPE = "account_type";
+
+        /**
+         * 前方一致で絞り込むための選択条件。<br>
+         * 選択条件の引数の1番目に検索文字列を指定する。大文字・小文字を区別せずに、
+         * アカウント名全体またはグループのタイトル全体の先頭に一致するものを返す（途中の単語の先頭には一致しない）。
+         * グループのタイトルに一致した場合は、そのグループの全アカウントを返す。
+         */
+        public static final String SELECTION_PREFIX = "prefix = ?";
+
+        /** 返す最大件数を指定するクエリパラメータ */
+        public static final String PARAM_LIMIT = "limit";
+
+        /** 列を指定しない場合に返す列 */
+        public static final String[] DEFAULT_PROJECTION = {_ID, NAME, GROUP_TITLE, ACCOUNT_TYPE};
+
+        private Accounts() {
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.droibit.accountmushroom;
+
+import android.Manifest;
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.droibit.accountmushroom.AccountContract.Accounts;
+import com.droibit.accountmushroom.model.AccountFetcher;
+import com.droibit.accountmushroom.model.AccountFilter;
+import com.droibit.accountmushroom.model.AccountSnapshotCache;
+import com.droibit.accountmushroom.model.GroupedList;
+import com.droibit.accountmushroom.model.SnapshotStore;
+import com.droibit.accountmushroom.service.SnapshotRebuildService;
+import com.droibit.accountmushroom.utils.PermissionChecker;
+
+/**
+ * マッシュルームを起動せずにアカウント名を取得するためのプロバイダ。<br>
+ * {@link AccountSnapshotCache}に保持または保存しているアカウント情報を返し、ない場合は
+ * マッシュルームと同じく{@link AccountFetcher}で読み込む。前方一致の絞り込みには{@link AccountFilter}を使う。<br>
+ * 保存されていたアカウント情報を返した場合は{@link SnapshotRebuildService}で確認し、
+ * 保持し直した時点で{@link Accounts#CONTENT_URI}の変更を通知する。
+ *
+ * @author kumagai
+ */
+public class AccountProvider extends ContentProvider {
+
+    private static final int MATCH_ACCOUNTS = 1;
+
+    private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+
+    static {
+        sUriMatcher.addURI(AccountContract.AUTHORITY, "accounts", MATCH_ACCOUNTS);
+    }
+
+    /** 確認を始めた保存されていたアカウント情報 */
+    private GroupedList mRevalidatingSnapshot;
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        if (sUriMatcher.match(uri) != MATCH_ACCOUNTS) {
+            throw new IllegalArgumentException("Unknown URI: " + uri);
+        }
+        final String[] columns = projection != null ? projection : Accounts.DEFAULT_PROJECTION;
+        final int[] columnIds = toColumnIds(columns);
+        final String prefix = getPrefix(selection, selectionArgs);
+        final int limit = getLimit(uri);
+
+        final MatrixCursor cursor = new MatrixCursor(columns);
+        // 確認した結果で読み込み直せるようにする
+        cursor.setNotificationUri(getContext().getContentResolver(), Accounts.CONTENT_URI);
+        final GroupedList groupedList = getSnapshot();
+        if (groupedList == null) {
+            return cursor;
+        }
+
+        final Object[] row = new Object[columns.length];
+        if (TextUtils.isEmpty(prefix)) {
+            int count = 0;
+            for (int group = 0; group < groupedList.getGroupCount() && count < limit; group++) {
+                for (int child = 0; child < groupedList.getChildrenCount(group) && count < limit; child++) {
+                    addRow(cursor, row, columnIds, groupedList, group, groupedList.getFlatPosition(group, child));
+                    count++;
+                }
+            }
+            return cursor;
+        }
+
+        final AccountFilter filter = new AccountFilter(groupedList);
+        filter.setQuery(prefix);
+        int count = 0;
+        for (int position = 0; position < filter.getGroupCount() && count < limit; position++) {
+            final int group = filter.getGroupPosition(position);
+            for (int child = 0; child < filter.getChildrenCount(position) && count < limit; child++) {
+                addRow(cursor, row, columnIds, groupedList, group, filter.getFlatPosition(position, child));
+                count++;
+            }
+        }
+        return cursor;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getType(Uri uri) {
+        if (sUriMatcher.match(uri) == MATCH_ACCOUNTS) {
+            return Accounts.CONTENT_TYPE;
+        }
+        return null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Accounts are read-only.");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Accounts are read-only.");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Accounts are read-only.");
+    }
+
+    /**
+     * 保持しているアカウント情報を取得する。保持していない場合は読み込んで保持する（バインダスレッド）
+     */
+    private GroupedList getSnapshot() {
+        // 権限がないまま読み込むと一部のアカウントだけを保持してしまう
+        if (!PermissionChecker.hasSelfPermission(getContext(), Manifest.permission.GET_ACCOUNTS)) {
+            return null;
+        }
+
+        final AccountSnapshotCache cache = AccountSnapshotCache.getInstance(getContext());
+        final int generation = cache.getGeneration();
+        final GroupedList snapshot = cache.restore();
+        if (snapshot != null) {
+            // 削除されたアカウントを含む可能性があるので、確認を始めてからそのまま返す
+            if (cache.isStale(snapshot)) {
+                requestRevalidation(snapshot);
+            }
+            return snapshot;
+        }
+
+        final AccountFetcher fetcher = new AccountFetcher(getContext());
+        final GroupedList groupedList = fetcher.fetch();
+        if (groupedList != null) {
+            groupedList.getIndex();
+            // ラベル名が間に合わなかった場合は、作り直されるまで保存しない
+            if (cache.put(groupedList, generation) && !fetcher.isProvisional()) {
+                new SnapshotStore(getContext()).write(groupedList);
+            }
+        }
+        return groupedList;
+    }
+
+    /**
+     * 保存されていたアカウント情報を確認するサービスを起動する。同じアカウント情報では1回だけ起動する
+     */
+    private void requestRevalidation(GroupedList snapshot) {
+        synchronized (this) {
+            if (snapshot == mRevalidatingSnapshot) {
+                return;
+            }
+            mRevalidatingSnapshot = snapshot;
+        }
+        SnapshotRebuildService.start(getContext(), null);
+    }
+
+    private static int[] toColumnIds(String[] columns) {
+        final int[] columnIds = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            final int index = indexOf(Accounts.DEFAULT_PROJECTION, columns[i]);
+            if (index < 0) {
+                throw new IllegalArgumentException("Unknown column: " + columns[i]);
+            }
+            columnIds[i] = index;
+        }
+        return columnIds;
+    }
+
+    private static int indexOf(String[] columns, String column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String getPrefix(String selection, String[] selectionArgs) {
+        if (selection == null) {
+            return null;
+        }
+        if (!Accounts.SELECTION_PREFIX.equals(selection) || selectionArgs == null || selectionArgs.length != 1) {
+            throw new IllegalArgumentException("Unsupported selection: " + selection);
+        }
+        return selectionArgs[0];
+    }
+
+    private static int getLimit(Uri uri) {
+        final String limit = uri.getQueryParameter(Accounts.PARAM_LIMIT);
+        if (limit == null) {
+            return Integer.MAX_VALUE;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(limit));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        }
+    }
+
+    private static void addRow(MatrixCursor cursor, Object[] row, int[] columnIds, GroupedList groupedList,
+                               int group, int flatPosition) {
+        for (int i = 0; i < columnIds.length; i++) {
+            // DEFAULT_PROJECTIONの順に対応する
+            switch (columnIds[i]) {
+                case 0:
+                    row[i] = flatPosition;
+                    break;
+                case 1:
+                    row[i] = groupedList.getChildAt(flatPosition);
+                    break;
+                case 2:
+                    row[i] = groupedList.getGroup(group);
+                    break;
+                default:
+                    row[i] = groupedList.getGroupType(group);
+                    break;
+            }
+        }
+        cursor.addRow(row);
+    }
+}
@@ -2,45 +2,92 @@ package com.droibit.accountmushroom;
 
 import android.Manifest;
 import android.app.ExpandableListActivity;
+import android.app.LoaderManager;
 import android.content.Intent;
+import android.content.Loader;
 import android.os.Bundle;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.EditText;
 import android.widget.ExpandableListView;
-import android.widget.SimpleExpandableListAdapter;
 import android.widget.Toast;
 
-import com.droibit.accountmushroom.model.AccountFetcher;
+import com.droibit.accountmushroom.model.AccountFilter;
+import com.droibit.accountmushroom.model.AccountLoader;
+import com.droibit.accountmushroom.model.AccountSnapshotCache;
 import com.droibit.accountmushroom.model.GroupedList;
+import com.droibit.accountmushroom.model.GroupedListDiff;
+import com.droibit.accountmushroom.model.ParcelableGroupedList;
+import com.droibit.accountmushroom.model.SelectionLog;
+import com.droibit.accountmushroom.utils.LatencyReport;
+import com.droibit.accountmushroom.utils.LatencyTracer;
+import com.droibit.accountmushroom.utils.MainThreadWatchdog;
 import com.droibit.accountmushroom.utils.PermissionChecker;
+import com.droibit.accountmushroom.widget.AccountListAdapter;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Simeji系のマッシュルームから表示されるアクティビティ。<br>
- * ログインしている全アカウントを表示し、その名前を選択できるようにする。
+ * ログインしている全アカウントを表示し、その名前を選択できるようにする。<br>
+ * IMEで入力中の文字列が渡された場合はそれで絞り込んで表示し、一致するアカウントが1つだけの場合は一覧を表示せずに返す。
+ * アカウント名の途中に一致するものも表示し、先頭に一致するものを前に並べる。<br>
+ * 保存されていたアカウント情報はすぐに表示し、最新のアカウント情報と異なる場合だけ差し替える。
+ * 削除されていたアカウントは消さずに選択できない状態で残す。<br>
+ * 画面の回転などで作り直された場合はローダが保持しているアカウント情報を使い、展開していたグループも復元する。
+ * プロセスが終了した場合に備えて、アカウント情報も{@link ParcelableGroupedList}として保存しておく。
  *
  * @author kumagai
  */
-public class MushroomActivity extends ExpandableListActivity {
+public class MushroomActivity extends ExpandableListActivity
+        implements LoaderManager.LoaderCallbacks<GroupedList>, TextWatcher {
 
     private static final int REQUEST_PERMISSION = 1;
 
-    private static final int REQUEST_FILTER = 2;
+    private static final int LOADER_ACCOUNTS = 1;
+
+    /** よく使うアカウントとして表示する数 */
+    private static final int RECENT_COUNT = 5;
 
     /** マッシュルームとやりとりする文字列のキー */
     private static final String KEY_REPLACE = "replace_key";
     /** マッシュルームのアクション */
     private static final String ACTION_INTERCEPT = "com.adamrocker.android.simeji.ACTION_INTERCEPT";
 
-    private AccountFetcher mAccountFetcher;
+    /** 保存したアカウント情報のキー */
+    private static final String STATE_ACCOUNTS = "accounts";
+
+    /** 展開していたグループのタイトルのキー */
+    private static final String STATE_EXPANDED_GROUPS = "expanded_groups";
+
+    /** よく使うアカウントのグループを展開していたかどうかのキー */
+    private static final String STATE_RECENT_EXPANDED = "recent_expanded";
+
+    /** アカウントを絞り込むための入力欄 */
+    private EditText mFilterText;
+
+    /** 起動した時刻。一覧を表示したら0にする */
+    private long mLaunchStart;
+
+    /** IMEから渡された検索文字列。最初に一覧を表示したら{@code null}にする */
+    private String mInitialQuery;
+
+    /** 作り直す前に保存した状態。最初に一覧を表示したら{@code null}にする */
+    private Bundle mSavedState;
 
     /** {@inheritDoc} */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        mLaunchStart = LatencyTracer.begin();
+        // 起動してから一覧を表示するまでの間、メインルーパーの停止を監視する（デバッグビルドのみ）
+        MainThreadWatchdog.startLooperMonitor();
         super.onCreate(savedInstanceState);
 
         getActionBar().setTitle(R.string.title_select_account);
@@ -52,7 +99,18 @@ public class MushroomActivity extends ExpandableListActivity {
         }
         setContentView(R.layout.activity_mushroom);
 
-        mAccountFetcher = new AccountFetcher(this);
+        mFilterText = (EditText) findViewById(R.id.filter);
+        mFilterText.addTextChangedListener(this);
+
+        // 再作成された場合は入力欄の状態が復元されるので、最初の起動時だけ設定する
+        mSavedState = savedInstanceState;
+        if (savedInstanceState == null) {
+            mInitialQuery = extractQuery(getIntent().getStringExtra(KEY_REPLACE));
+            if (mInitialQuery != null) {
+                mFilterText.setText(mInitialQuery);
+                mFilterText.setSelection(mInitialQuery.length());
+            }
+        }
 
         // 既に権限が得られている場合は表示する
         if (PermissionChecker.hasSelfPermission(this, Manifest.permission.GET_ACCOUNTS)) {
@@ -64,13 +122,48 @@ public class MushroomActivity extends ExpandableListActivity {
 
     /** {@inheritDoc} */
     @Override
-    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
-        super.onActivityResult(requestCode, resultCode, data);
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
 
-        // フィルターが書けられた OR 変更したら再表示する。
-        if (requestCode == REQUEST_FILTER && resultCode == RESULT_OK) {
-            showAccounts();
+        final AccountListAdapter adapter = (AccountListAdapter) getExpandableListAdapter();
+        if (adapter == null) {
+            // 一覧を表示する前の場合は、復元した状態をそのまま引き継ぐ
+            if (mSavedState != null) {
+                outState.putAll(mSavedState);
+            }
+            return;
+        }
+
+        final ExpandableListView listView = getExpandableListView();
+        final ArrayList<String> expandedGroups = new ArrayList<>();
+        boolean recentExpanded = false;
+        for (int i = 0, count = adapter.getGroupCount(); i < count; i++) {
+            if (!listView.isGroupExpanded(i)) {
+                continue;
+            }
+            if (adapter.isRecentGroup(i)) {
+                recentExpanded = true;
+            } else {
+                expandedGroups.add(adapter.getGroup(i));
+            }
         }
+        outState.putStringArrayList(STATE_EXPANDED_GROUPS, expandedGroups);
+        outState.putBoolean(STATE_RECENT_EXPANDED, recentExpanded);
+
+        // 削除されたアカウントを含まないように、表示中のリストではなく確認済みのアカウント情報を保存する
+        // （ローダが変換しておいたものを使い、UIスレッドでは変換しない）
+        final ParcelableGroupedList saved = AccountSnapshotCache.getInstance(this).getParcelable();
+        if (saved != null) {
+            outState.putParcelable(STATE_ACCOUNTS, saved);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // 一覧を表示する前に終了した場合
+        stopWatchdog();
     }
 
     /** {@inheritDoc} */
@@ -93,6 +186,8 @@ public class MushroomActivity extends ExpandableListActivity {
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu, menu);
+        // 処理時間のレポートはデバッグビルドでのみ表示する
+        menu.findItem(R.id.action_latency_report).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
@@ -101,7 +196,12 @@ public class MushroomActivity extends ExpandableListActivity {
     public boolean onOptionsItemSelected(MenuItem item) {
         final int id = item.getItemId();
         if (id == R.id.action_settings) {
-            startActivityForResult(new Intent(this, SettingsActivity.class), REQUEST_FILTER);
+            // フィルターが変更された場合はローダが差分だけ反映するので、結果を受け取る必要はない
+            startActivity(new Intent(this, SettingsActivity.class));
+            return true;
+        }
+        if (id == R.id.action_latency_report) {
+            LatencyReport.show(this);
             return true;
         }
         return super.onOptionsItemSelected(item);
@@ -110,29 +210,240 @@ public class MushroomActivity extends ExpandableListActivity {
     /** {@inheritDoc} */
     @Override
     public boolean onChildClick(ExpandableListView parent, View v, int groupPosition, int childPosition, long id) {
-        final Map<String, String> child = (Map<String, String>) getExpandableListAdapter()
-                                                                    .getChild(groupPosition, childPosition);
+        final AccountListAdapter adapter = (AccountListAdapter) getExpandableListAdapter();
+        if (adapter.isMoreRow(groupPosition, childPosition)) {
+            adapter.showMore(groupPosition);
+            return true;
+        }
+        if (!adapter.isChildSelectable(groupPosition, childPosition)) {
+            return true;
+        }
+
+        commitAccount(adapter.getChild(groupPosition, childPosition));
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Loader<GroupedList> onCreateLoader(int id, Bundle args) {
+        // 画面の回転などではローダが保持されるので、プロセスが終了した後だけ呼ばれる
+        final ParcelableGroupedList saved = mSavedState != null
+                ? (ParcelableGroupedList) mSavedState.getParcelable(STATE_ACCOUNTS) : null;
+        return new AccountLoader(this, saved);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onLoadFinished(Loader<GroupedList> loader, GroupedList gropedList) {
+        setLoading(false);
+        // 中断された場合
+        if (gropedList == null) {
+            return;
+        }
+
+        final long bindStart = LatencyTracer.begin();
+        final AccountListAdapter current = (AccountListAdapter) getExpandableListAdapter();
+        // 保存されていたアカウント情報は削除されたアカウントを含む可能性があるので、確認するまで自動では選ばない
+        final boolean stale = AccountSnapshotCache.getInstance(this).isStale(gropedList);
+        // 一覧を表示した後は操作中の可能性があるので、自動で選んで閉じるのは表示する前だけにする
+        if (current == null && !stale && commitSingleMatch(gropedList)) {
+            return;
+        }
+        if (current != null) {
+            // 表示中の場合はアダプタを作り直さず、差分だけ反映する
+            updateAccounts(current, gropedList);
+            if (!stale) {
+                highlightSingleMatch(current);
+            }
+        } else {
+            // アカウト情報のリストを表示する
+            final AccountListAdapter adapter = new AccountListAdapter(this, gropedList);
+            adapter.setRecentNames(SelectionLog.getInstance(this).getTopNames(gropedList, RECENT_COUNT));
+            setListAdapter(adapter);
+            applyFilter(adapter);
+            if (mSavedState != null) {
+                restoreExpandedGroups(adapter, mSavedState);
+            } else if (!adapter.isFiltering() && adapter.isRecentGroup(0)) {
+                getExpandableListView().expandGroup(0);
+            }
+            mSavedState = null;
+        }
+        LatencyTracer.end(LatencyTracer.SPAN_BIND_ADAPTER, bindStart);
+
+        // 起動してから最初に一覧を表示するまでを記録する
+        if (mLaunchStart != 0) {
+            LatencyTracer.end(LatencyTracer.SPAN_LAUNCH, mLaunchStart);
+            mLaunchStart = 0;
+            // 一覧が描画されるまでを監視の対象にする
+            getExpandableListView().post(new Runnable() {
+                @Override
+                public void run() {
+                    stopWatchdog();
+                }
+            });
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onLoaderReset(Loader<GroupedList> loader) {
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void afterTextChanged(Editable s) {
+        final AccountListAdapter adapter = (AccountListAdapter) getExpandableListAdapter();
+        if (adapter != null) {
+            applyFilter(adapter);
+        }
+    }
+
+    /**
+     * IMEから渡された文字列から検索文字列を取り出す。<br>
+     * 入力中の文章が渡される場合もあるので、最後の単語をアカウント名の先頭として扱う。
+     *
+     * @return 検索文字列。空の場合は{@code null}
+     */
+    private static String extractQuery(String text) {
+        if (text == null) {
+            return null;
+        }
+        final String trimmed = text.trim();
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+        int start = trimmed.length();
+        while (start > 0 && !Character.isWhitespace(trimmed.charAt(start - 1))) {
+            start--;
+        }
+        return trimmed.substring(start);
+    }
+
+    /**
+     * IMEから渡された文字列に一致するアカウント名が1つだけの場合は、一覧を作成せずにそのアカウントを返す。<br>
+     * グループのラベル名の一致では選ばずに、絞り込んだ一覧を表示する。1つも一致しない場合は絞り込まずに全て表示する。
+     *
+     * @return アカウントを返して終了する場合は{@code true}
+     */
+    private boolean commitSingleMatch(GroupedList groupedList) {
+        final String query = mInitialQuery;
+        mInitialQuery = null;
+        if (query == null || !query.contentEquals(mFilterText.getText())) {
+            return false;
+        }
+
+        final AccountFilter filter = new AccountFilter(groupedList, true);
+        filter.setQuery(query);
+        // 1つだけのアカウントを持つグループのラベル名に一致しても、そのアカウントを選んだとは限らない
+        if (filter.getNameMatchCount() == 1) {
+            commitAccount(groupedList.getChildAt(filter.getNameMatchPosition()));
+            return true;
+        }
+        if (filter.getMatchCount() == 0) {
+            mFilterText.setText(null);
+        }
+        return false;
+    }
+
+    /**
+     * 確認前のアカウント情報で一覧を表示した後に確認できた場合は、返す代わりに一致するアカウントを強調する。<br>
+     * 入力欄が変更されている場合は、IMEから渡された文字列で選んだことにならないので何もしない。
+     */
+    private void highlightSingleMatch(AccountListAdapter adapter) {
+        final String query = mInitialQuery;
+        mInitialQuery = null;
+        if (query != null && query.contentEquals(mFilterText.getText())) {
+            adapter.highlightSingleNameMatch();
+        }
+    }
+
+    /**
+     * 選択されたアカウント名をIMEに返して終了する
+     */
+    private void commitAccount(String name) {
+        SelectionLog.getInstance(this).record(name);
+
         final Intent data = new Intent();
-        data.putExtra(KEY_REPLACE, child.get(GroupedList.KEY_CHILD_TITLE));
+        data.putExtra(KEY_REPLACE, name);
         setResult(RESULT_OK, data);
+
+        // 選択された時点で読み込み中の処理は不要になる
+        getLoaderManager().destroyLoader(LOADER_ACCOUNTS);
         finish();
-        return true;
+    }
+
+    private void applyFilter(AccountListAdapter adapter) {
+        adapter.setQuery(mFilterText.getText());
+
+        // 絞り込んだ結果はすぐに選べるように展開しておく
+        if (adapter.isFiltering()) {
+            final ExpandableListView listView = getExpandableListView();
+            for (int i = 0, count = adapter.getGroupCount(); i < count; i++) {
+                listView.expandGroup(i);
+            }
+        }
+    }
+
+    private void restoreExpandedGroups(AccountListAdapter adapter, Bundle savedState) {
+        final ArrayList<String> expandedGroups = savedState.getStringArrayList(STATE_EXPANDED_GROUPS);
+        if (expandedGroups == null) {
+            return;
+        }
+        final Set<String> titles = new HashSet<>(expandedGroups);
+        final boolean recentExpanded = savedState.getBoolean(STATE_RECENT_EXPANDED);
+        final ExpandableListView listView = getExpandableListView();
+        for (int i = 0, count = adapter.getGroupCount(); i < count; i++) {
+            final boolean expanded = adapter.isRecentGroup(i) ? recentExpanded : titles.contains(adapter.getGroup(i));
+            if (expanded) {
+                listView.expandGroup(i);
+            }
+        }
+    }
+
+    private void updateAccounts(AccountListAdapter adapter, GroupedList groupedList) {
+        final GroupedList displayed = adapter.getGroupedList();
+        if (displayed == groupedList || GroupedListDiff.compute(displayed, groupedList).isEmpty()) {
+            return;
+        }
+        // 選ぼうとしていたアカウントが消えないように、削除されたアカウントは選択できない状態で残す
+        final GroupedList merged = GroupedList.mergeRemoved(displayed, groupedList);
+        final GroupedListDiff diff = GroupedListDiff.compute(displayed, merged);
+
+        // グループのIDは差し替えても変わらないので、展開しているグループはExpandableListViewが引き継ぐ
+        adapter.swapGroupedList(merged, diff);
+        adapter.setRecentNames(SelectionLog.getInstance(this).getTopNames(groupedList, RECENT_COUNT));
+        if (adapter.isFiltering()) {
+            // 新しく一致したグループも展開する
+            applyFilter(adapter);
+        }
+    }
+
+    private void stopWatchdog() {
+        MainThreadWatchdog.stopLooperMonitor();
+        MainThreadWatchdog.flush(this);
     }
 
     private void showAccounts() {
-        // アカウト情報のリストを表示する
-        final GroupedList gropedList = mAccountFetcher.fetch();
-        final SimpleExpandableListAdapter adapter = new SimpleExpandableListAdapter(
-                this,
-                gropedList.groups,
-                android.R.layout.simple_expandable_list_item_1,
-                new String []{GroupedList.KEY_GROUP_TITLE},
-                new int []{android.R.id.text1},
-                gropedList.childrenList,
-                R.layout.simple_expandable_list_item,
-                new String []{GroupedList.KEY_CHILD_TITLE},
-                new int []{android.R.id.text1}
-        );
-        setListAdapter(adapter);
+        setLoading(true);
+        getLoaderManager().initLoader(LOADER_ACCOUNTS, null, this);
+    }
+
+    private void setLoading(boolean loading) {
+        // 読み込み中は「アカウントがありません」を表示しない
+        final ExpandableListView listView = getExpandableListView();
+        final View emptyView = findViewById(loading ? R.id.progress : android.R.id.empty);
+        final View hiddenView = findViewById(loading ? android.R.id.empty : R.id.progress);
+        hiddenView.setVisibility(View.GONE);
+        listView.setEmptyView(emptyView);
     }
 }
@@ -0,0 +1,22 @@
+package com.droibit.accountmushroom;
+
+import android.app.Application;
+
+import com.droibit.accountmushroom.utils.LatencyTracer;
+
+/**
+ * アプリケーションクラス。<br>
+ * アクティビティ、プロバイダ、サービスのどれから起動された場合も、最初に共通の設定を行う。
+ *
+ * @author kumagai
+ */
+public class MushroomApplication extends Application {
+
+    /** {@inheritDoc} */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // 処理時間はデバッグビルドでのみ記録する
+        LatencyTracer.setEnabled(BuildConfig.DEBUG);
+    }
+}
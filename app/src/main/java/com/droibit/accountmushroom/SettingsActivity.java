@@ -4,7 +4,9 @@ import android.Manifest;
 import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.Fragment;
+import android.app.LoaderManager;
 import android.content.Context;
+import android.content.Loader;
 import android.content.SharedPreferences;
 import android.os.Build;
 import android.os.Bundle;
@@ -17,11 +19,13 @@ import android.view.View;
 import android.webkit.WebViewFragment;
 import android.widget.Toast;
 
-import com.droibit.accountmushroom.model.AccountFetcher;
+import com.droibit.accountmushroom.model.AccountLoader;
+import com.droibit.accountmushroom.model.AccountTypeCatalog;
+import com.droibit.accountmushroom.model.GroupedList;
+import com.droibit.accountmushroom.utils.MainThreadWatchdog;
 import com.droibit.accountmushroom.utils.PermissionChecker;
 
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 import java.util.prefs.PreferenceChangeEvent;
 import java.util.prefs.PreferenceChangeListener;
@@ -65,10 +69,13 @@ public class SettingsActivity extends Activity {
     }
 
     /**
-     * アプリケーションの設定を行うためのフラグメント
+     * アプリケーションの設定を行うためのフラグメント。<br>
+     * アカウントタイプの選択肢は、マッシュルームと共有する{@link AccountTypeCatalog}から作成する。
      */
     public static class SettingsFragment extends PreferenceFragment
-            implements Preference.OnPreferenceChangeListener {
+            implements Preference.OnPreferenceChangeListener, LoaderManager.LoaderCallbacks<GroupedList> {
+
+        private static final int LOADER_ACCOUNTS = 1;
 
         /** 複数選択のプレファレンス */
         private MultiSelectListPreference mListPref;
@@ -100,7 +107,7 @@ public class SettingsActivity extends Activity {
             super.onViewCreated(view, savedInstanceState);
 
             if (PermissionChecker.hasSelfPermission(getActivity(), Manifest.permission.GET_ACCOUNTS)) {
-                setupAccounts(mListPref);
+                setupAccounts();
             } else {
                 mListPref.setEnabled(false);
             }
@@ -113,7 +120,7 @@ public class SettingsActivity extends Activity {
             super.onRequestPermissionsResult(requestCode, permissions, grantResults);
 
             if (PermissionChecker.hasGranted(grantResults)) {
-                setupAccounts(mListPref);
+                setupAccounts();
             } else {
                 Toast.makeText(getActivity(), R.string.msg_deneid_permission_accout_in_settings,
                         Toast.LENGTH_SHORT).show();
@@ -124,15 +131,24 @@ public class SettingsActivity extends Activity {
         @Override
         public void onResume() {
             super.onResume();
+            final long watchStart = MainThreadWatchdog.begin();
 
             // 設定アプリから許可されて場合にそなえて、アカウントリストがなければ読みこむようにする
             if (PermissionChecker.hasSelfPermission(getActivity(), Manifest.permission.GET_ACCOUNTS)) {
                 if (mListPref.getEntries() == null || mListPref.getEntries().length == 0) {
-                    setupAccounts(mListPref);
+                    setupAccounts();
                 }
             } else {
                 mListPref.setEnabled(false);
             }
+            MainThreadWatchdog.end(MainThreadWatchdog.CALL_SETTINGS_RESUME, watchStart);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void onPause() {
+            super.onPause();
+            MainThreadWatchdog.flush(getActivity());
         }
 
         /** {@inheritDoc} */
@@ -142,22 +158,55 @@ public class SettingsActivity extends Activity {
             return true;
         }
 
-        private void setupAccounts(MultiSelectListPreference listPref) {
-            final AccountFetcher fetcher = new AccountFetcher(getActivity());
-            final Map<String, String> groups = fetcher.fetchGroups();
+        /** {@inheritDoc} */
+        @Override
+        public Loader<GroupedList> onCreateLoader(int id, Bundle args) {
+            return new AccountLoader(getActivity());
+        }
 
-            if (!groups.isEmpty()) {
-                listPref.setEntries(groups.keySet().toArray(new String[groups.size()]));
-                listPref.setEntryValues(groups.values().toArray(new String[groups.size()]));
-                listPref.setEnabled(true);
-            } else {
-                listPref.setEnabled(false);
+        /** {@inheritDoc} */
+        @Override
+        public void onLoadFinished(Loader<GroupedList> loader, GroupedList groupedList) {
+            // 中断された場合
+            if (groupedList == null) {
+                return;
             }
+
+            final AccountTypeCatalog catalog = groupedList.getCatalog();
+            final int size = catalog.size();
+            if (size == 0) {
+                mListPref.setEnabled(false);
+                return;
+            }
+
+            final String[] entries = new String[size];
+            final String[] entryValues = new String[size];
+            for (int i = 0; i < size; i++) {
+                entries[i] = getString(R.string.group_title_format, catalog.getLabel(i), catalog.getAccountCount(i));
+                entryValues[i] = catalog.getType(i);
+            }
+            mListPref.setEntries(entries);
+            mListPref.setEntryValues(entryValues);
+            mListPref.setEnabled(true);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void onLoaderReset(Loader<GroupedList> loader) {
+        }
+
+        private void setupAccounts() {
+            // マッシュルームで読み込み済みの場合は、アカウントの列挙もラベル名の取得もしない
+            getLoaderManager().initLoader(LOADER_ACCOUNTS, null, this);
         }
     }
 
     public static Set<String> getHideAccounts(Context context) {
+        final long watchStart = MainThreadWatchdog.begin();
         final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getStringSet(context.getString(R.string.pref_filter_key_select_account), new HashSet<String>());
+        final Set<String> hideAccounts = prefs.getStringSet(
+                context.getString(R.string.pref_filter_key_select_account), new HashSet<String>());
+        MainThreadWatchdog.end(MainThreadWatchdog.CALL_SHARED_PREFERENCES_PREFIX + "default", watchStart);
+        return hideAccounts;
     }
 }
@@ -6,18 +6,25 @@ import android.accounts.AuthenticatorDescription;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
-import android.text.TextUtils;
 import android.util.Log;
 
-import com.droibit.accountmushroom.SettingsActivity;
+import com.droibit.accountmushroom.utils.LatencyTracer;
+import com.droibit.accountmushroom.utils.MainThreadWatchdog;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * 端末でログインしているアカウント情報を読み込むためのユーティリティクラス。<br>
@@ -26,146 +33,308 @@ import java.util.Set;
  * @author kumagai
  * @since 2014/03/23.
  */
-public final class AccountFetcher {
+public final class AccountFetcher implements AccountSource, LabelResolver {
 
     private static final String TAG = AccountFetcher.class.getSimpleName();
 
+    /** ラベル名を並列に読み込むスレッドの最大数 */
+    private static final int LABEL_THREAD_COUNT = 4;
+
+    /** パッケージごとにラベル名の読み込みを待つ時間（ミリ秒） */
+    private static final long LABEL_TIMEOUT_MILLIS = 1000;
+
+    /** ラベル名の読み込みを待つ間に、中断されたかどうかを確認する間隔（ミリ秒） */
+    private static final long LABEL_POLL_MILLIS = 50;
+
+    /** ラベル名を読み込むスレッドプール。使われていない間はスレッドを終了する */
+    private static final ExecutorService sLabelExecutor = createLabelExecutor();
+
     /** コンテキスト */
     private final Context mContext;
 
-    /** {@link Account#type}とパッケージ名の対応表 */
-    private final Map<String, String> mServices;
+    /** {@link Account#type}とラベル名の対応表（ラベル名の読み込みスレッドと共有する） */
+    private final ConcurrentMap<String, String> mServices;
 
-    /** 非表示にするアカウント */
-    private Set<String> mIgnoreAccounts;
+    /** ラベル名のディスクキャッシュ */
+    private final LabelCache mLabelCache;
 
-    /** ログイン情報群 */
-    private final Map<String, AuthenticatorDescription> mTypeToAuthDescription;
+    /** 認証システムの情報 */
+    private final AuthenticatorRegistry mRegistry;
 
-    /** アカウントグループ名を比較する */
-    private final Comparator<Map<String, List<String>>> mComparator = new Comparator<Map<String, List<String>>>() {
-        @Override
-        public int compare(Map<String, List<String>> lhs, Map<String, List<String>> rhs) {
-            return lhs.keySet().toString().compareTo(rhs.keySet().toString());
-        }
-    };
+    /** グループ化したリストを作成する */
+    private final AccountListBuilder mListBuilder;
+
+    /** 読み込みが中断されたかどうか（ラベル名の読み込みを待っている間に確認する） */
+    private volatile boolean mCanceled;
+
+    /** 直前の読み込みで、ラベル名の代わりにアカウントタイプを使ったかどうか */
+    private boolean mProvisional;
 
     /**
-     * 新しいインスタンスを作成する
+     * 新しいインスタンスを作成する。<br>
+     * 認証システムの情報は{@link AuthenticatorRegistry}から必要になった時点で取得する。
      *
      * @param context コンテキスト
      */
     public AccountFetcher(Context context) {
         mContext = context;
+        mRegistry = AuthenticatorRegistry.getInstance(context);
+        mServices = new ConcurrentHashMap<>();
+        mLabelCache = new LabelCache(context);
+        mListBuilder = new AccountListBuilder(this, this,
+                AccountSnapshotCache.getInstance(context).getTypeTable());
+    }
 
-        mTypeToAuthDescription = new HashMap<>();
-        final AuthenticatorDescription[] authDescs = AccountManager.get(context).getAuthenticatorTypes();
-        for (int i = 0; i < authDescs.length; i++) {
-            mTypeToAuthDescription.put(authDescs[i].type, authDescs[i]);
-        }
-        mServices = new HashMap<>(mTypeToAuthDescription.size());
+    private static ExecutorService createLabelExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(LABEL_THREAD_COUNT, LABEL_THREAD_COUNT,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     /**
      * 端末に追加されているアカウントを読み込む。<br>
      * {@link android.accounts.Account#type}ごとにグループ化したリストを返す。
+     * 設定画面で使うアカウントタイプの一覧も同時に作成する。<br>
+     * {@link #cancel()}で中断された場合は{@code null}を返す。
      *
      * @return グループ化したアカウントのリスト
      */
     public final GroupedList fetch() {
-        mIgnoreAccounts = SettingsActivity.getHideAccounts(mContext);
+        mCanceled = false;
+        mProvisional = false;
+        return mListBuilder.build();
+    }
 
-        final List<Map<String, List<String>>> groups = new ArrayList<>();
-        // 扱いやすいように[親:1 - 子:多]のリストに変換する
-        for (Account account : AccountManager.get(mContext).getAccounts()) {
-            // 非表示アカウントの場合
-            if (ignore(account.type)) {
-                continue;
-            }
+    /**
+     * 別スレッドで実行中の{@link #fetch()}を中断する
+     */
+    public void cancel() {
+        mCanceled = true;
+        mListBuilder.cancel();
+    }
 
-            final String label = getLabelForType(account.type);
-            // サービス名が取得できない場合
-            if (TextUtils.isEmpty(label)) {
-                continue;
-            }
+    /**
+     * 直前の{@link #fetch()}で、ラベル名が間に合わずにアカウントタイプをグループのタイトルにしたかどうか。<br>
+     * その場合は読み込みが終わった時点で{@link AccountSnapshotCache}を破棄するので、{@link SnapshotStore}には保存しないこと。
+     *
+     * @return アカウントタイプをタイトルにしたグループがある場合は{@code true}
+     */
+    public boolean isProvisional() {
+        return mProvisional;
+    }
 
-            final Map<String, List<String>> searchedGroup = getGroup(groups, label);
-            if (searchedGroup == null) {
-                final Map<String, List<String>> newGroup = new HashMap<String, List<String>>(1);
-                final List<String> newChildren = new ArrayList<String>();
-                newChildren.add(account.name);
-                newGroup.put(label, newChildren);
-                groups.add(newGroup);
-                continue;
+    /** {@inheritDoc} */
+    @Override
+    public void forEachAccount(Visitor visitor) {
+        final long start = LatencyTracer.begin();
+        final long watchStart = MainThreadWatchdog.begin();
+        final Account[] accounts = AccountManager.get(mContext).getAccounts();
+        MainThreadWatchdog.end(MainThreadWatchdog.CALL_GET_ACCOUNTS, watchStart);
+        LatencyTracer.end(LatencyTracer.SPAN_ACCOUNTS, start);
+
+        // グルーピングの前に、全てのアカウントタイプのラベル名を並列に取得しておく
+        prefetchLabels(accounts);
+
+        for (Account account : accounts) {
+            if (!visitor.visit(account.type, account.name)) {
+                return;
             }
-            final List<String> existChildren = searchedGroup.get(label);
-            existChildren.add(account.name);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getLabel(String accountType) {
+        return getLabelForType(accountType);
+    }
+
+    private String getLabelForType(String accountType) {
+        // キャッシュに対応するラベルが存在する場合
+        final String cached = mServices.get(accountType);
+        if (cached != null) {
+            return cached;
         }
 
-        // アカウントが存在しない場合
-        if (groups.isEmpty()) {
-            return new GroupedList();
+        final AuthenticatorDescription desc = mRegistry.getDescription(accountType);
+        if (desc == null) {
+            return null;
+        }
+        // ディスクにキャッシュされている場合はパッケージのリソースを読み込まない
+        final String label = mLabelCache.get(desc);
+        if (label != null) {
+            mServices.put(accountType, label);
+            return label;
         }
-        Collections.sort(groups, mComparator);
-        return new GroupedList(groups);
+        loadLabels(desc.packageName, Collections.singletonList(desc));
+        return mServices.get(accountType);
     }
 
     /**
-     * アカウントのグループのみ読み込む。<br>
-     * {@link Account#type}でグルーピングしたリストを返す
-     *
-     * @return アカウントのグループリスト
+     * ラベル名を取得していないアカウントタイプを、パッケージごとに並列に読み込む。<br>
+     * パッケージごとに{@link #LABEL_TIMEOUT_MILLIS}まで待ち、間に合わない場合はアカウントタイプをそのまま表示する。
+     * 間に合わなかったパッケージも読み込みは続け、終わった時点で{@link AccountSnapshotCache}を破棄して作り直させる。
      */
-    public Map<String, String> fetchGroups() {
-        final Map<String, String> groups = new HashMap<String, String>(mTypeToAuthDescription.size());
-        for (Account account : AccountManager.get(mContext).getAccounts()) {
-            final String label = getLabelForType(account.type);
-            if (TextUtils.isEmpty(label)) {
+    private void prefetchLabels(Account[] accounts) {
+        final Map<String, List<AuthenticatorDescription>> packages = new HashMap<>();
+        for (Account account : accounts) {
+            final String type = account.type;
+            // 非表示のアカウントタイプも設定画面の選択肢に使うので読み込む
+            if (mServices.containsKey(type)) {
+                continue;
+            }
+            final AuthenticatorDescription desc = mRegistry.getDescription(type);
+            if (desc == null) {
                 continue;
             }
-            if (!groups.containsKey(account.type)) {
-                groups.put(label, account.type);
+            final String label = mLabelCache.get(desc);
+            if (label != null) {
+                mServices.put(type, label);
+                continue;
+            }
+
+            List<AuthenticatorDescription> descs = packages.get(desc.packageName);
+            if (descs == null) {
+                descs = new ArrayList<>();
+                packages.put(desc.packageName, descs);
+            }
+            if (!descs.contains(desc)) {
+                descs.add(desc);
             }
         }
-        return groups;
-    }
+        if (packages.isEmpty()) {
+            return;
+        }
 
-    private boolean ignore(String accountType) {
-        return mIgnoreAccounts.contains(accountType);
+        final List<LabelTask> tasks = new ArrayList<>(packages.size());
+        for (Map.Entry<String, List<AuthenticatorDescription>> entry : packages.entrySet()) {
+            final LabelTask task = new LabelTask(entry.getKey(), entry.getValue());
+            task.future = sLabelExecutor.submit(task);
+            tasks.add(task);
+        }
+
+        final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(LABEL_TIMEOUT_MILLIS);
+        // 他のパッケージの待ちで始まらない場合に備えて、全体でも上限を設ける
+        final long overallDeadline = System.nanoTime() + timeoutNanos * 2;
+        for (LabelTask task : tasks) {
+            if (mCanceled) {
+                return;
+            }
+            if (!awaitLabels(task, timeoutNanos, overallDeadline)) {
+                if (mCanceled) {
+                    return;
+                }
+                Log.w(TAG, "Timed out loading labels of " + task.packageName);
+                task.timedOut = true;
+                for (AuthenticatorDescription desc : task.descs) {
+                    // 読み込みが終わった時点で本来のラベル名に置き換わる
+                    if (mServices.putIfAbsent(desc.type, desc.type) == null) {
+                        mProvisional = true;
+                    }
+                }
+            }
+        }
     }
 
-    private Map<String, List<String>> getGroup(List<Map<String, List<String>>> groups, String accountType) {
-        for (Map<String, List<String>> group : groups) {
-            if (group.containsKey(accountType)) {
-                return group;
+    private boolean awaitLabels(LabelTask task, long timeoutNanos, long overallDeadline) {
+        // 始まっていない場合は、待ち始めた時点から数える
+        final long waitStart = System.nanoTime();
+        while (true) {
+            if (mCanceled) {
+                return false;
+            }
+            final long now = System.nanoTime();
+            // 待っている間に始まった場合は、始まった時点から待ち直す
+            final long startedAt = task.startedAt;
+            final long deadline = Math.min(overallDeadline,
+                    startedAt != 0 ? startedAt + timeoutNanos : waitStart + timeoutNanos);
+            if (deadline <= now) {
+                return false;
+            }
+            try {
+                // 中断を確認できるように、少しずつ待つ
+                final long waitNanos = Math.min(deadline - now, TimeUnit.MILLISECONDS.toNanos(LABEL_POLL_MILLIS));
+                task.future.get(waitNanos, TimeUnit.NANOSECONDS);
+                return true;
+            } catch (TimeoutException e) {
+                // 次の確認まで待ち続ける
+            } catch (ExecutionException e) {
+                Log.w(TAG, "Failed to load labels of " + task.packageName, e.getCause());
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
             }
         }
-        return null;
     }
 
-    private String getLabelForType(String accountType) {
-        // キャッシュに対応するラベルが存在する場合
-        if (mServices.containsKey(accountType)) {
-            return mServices.get(accountType);
+    /**
+     * パッケージのリソースからラベル名を読み込み、キャッシュする
+     *
+     * @return 1つでもラベル名を読み込めた場合は{@code true}
+     */
+    private boolean loadLabels(String packageName, List<AuthenticatorDescription> descs) {
+        final Resources resources;
+        final long watchStart = MainThreadWatchdog.begin();
+        try {
+            resources = mContext.createPackageContext(packageName, 0).getResources();
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(TAG, "No label name for package " + packageName);
+            return false;
+        } finally {
+            MainThreadWatchdog.end(MainThreadWatchdog.CALL_CREATE_PACKAGE_CONTEXT_PREFIX + packageName, watchStart);
         }
 
-        String label = null;
-        if (mTypeToAuthDescription.containsKey(accountType)) {
+        boolean loaded = false;
+        for (AuthenticatorDescription desc : descs) {
+            // 認証システムごとに記録し、遅いものを見つけられるようにする
+            final long start = LatencyTracer.begin();
             try {
-                final AuthenticatorDescription desc = mTypeToAuthDescription.get(accountType);
-                final Context authContext = mContext.createPackageContext(desc.packageName, 0);
-                label = authContext.getResources().getString(desc.labelId);
-                // 対応表にキャッシュしておく
-                if (!mServices.containsKey(accountType)) {
-                    mServices.put(accountType, label);
-                }
-            } catch (PackageManager.NameNotFoundException e) {
-                Log.w(TAG, "No label name for account type " + accountType);
+                final String label = resources.getString(desc.labelId);
+                mServices.put(desc.type, label);
+                mLabelCache.put(desc, label);
+                loaded = true;
             } catch (Resources.NotFoundException e) {
-                Log.w(TAG, "No label resource for account type " + accountType);
+                Log.w(TAG, "No label resource for account type " + desc.type);
+            } finally {
+                // 記録しない場合は区間の名前も作らない
+                if (start != 0) {
+                    LatencyTracer.end(LatencyTracer.SPAN_LABEL_PREFIX + desc.type, start);
+                }
             }
         }
-        return label;
+        return loaded;
     }
 
+    /**
+     * パッケージ内のアカウントタイプのラベル名を読み込むタスク
+     */
+    private final class LabelTask implements Runnable {
+
+        final String packageName;
+
+        final List<AuthenticatorDescription> descs;
+
+        /** 実行を始めた時刻（ナノ秒）。始まっていない場合は0 */
+        volatile long startedAt;
+
+        /** 待ちきれずにアカウントタイプをラベル名の代わりにしたかどうか */
+        volatile boolean timedOut;
+
+        Future<?> future;
+
+        LabelTask(String packageName, List<AuthenticatorDescription> descs) {
+            this.packageName = packageName;
+            this.descs = descs;
+        }
+
+        @Override
+        public void run() {
+            startedAt = System.nanoTime();
+            if (loadLabels(packageName, descs) && timedOut) {
+                // アカウントタイプをタイトルにしたリストを保持しているので、本来のラベル名で作り直させる
+                AccountSnapshotCache.getInstance(mContext).requestRebuild();
+            }
+        }
+    }
 }
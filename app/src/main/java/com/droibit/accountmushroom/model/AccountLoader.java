@@ -0,0 +1,160 @@
+package com.droibit.accountmushroom.model;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+
+/**
+ * 端末のアカウント情報をバックグラウンドで読み込むためのローダ。<br>
+ * 読み込み中に破棄された場合は{@link AccountFetcher}の処理を中断する。<br>
+ * {@link AccountSnapshotCache}に保持されている場合は読み込まずにそれを返す。<br>
+ * プロセスの起動直後は{@link SnapshotStore}に保存されたアカウント情報を読み込み、
+ * {@link android.accounts.AccountManager}を呼び出さずに済ませる。
+ * 保存されていたアカウント情報を返した後は、改めて読み込んで確認し、変わっていた場合だけ保存し直す。<br>
+ * プロセスが終了した後にアクティビティが復元された場合は、アクティビティが保存していたアカウント情報を最初に使う。
+ * アクティビティが状態を保存する時にUIスレッドで変換しないように、確認済みのアカウント情報はここで変換しておく。
+ *
+ * @author kumagai
+ */
+public class AccountLoader extends AsyncTaskLoader<GroupedList>
+        implements AccountSnapshotCache.OnInvalidateListener {
+
+    private final AccountSnapshotCache mSnapshotCache;
+
+    /** 読み込み済みのアカウント情報 */
+    private GroupedList mGroupedList;
+
+    /** アクティビティが保存していたアカウント情報 */
+    private volatile ParcelableGroupedList mSavedGroupedList;
+
+    /** バックグラウンドで作成する */
+    private volatile AccountFetcher mAccountFetcher;
+
+    /** 保存されていたアカウント情報を返したので、次は{@link android.accounts.AccountManager}から読み込んで確認する */
+    private volatile boolean mRevalidating;
+
+    /**
+     * 新しいインスタンスを作成する
+     *
+     * @param context コンテキスト
+     */
+    public AccountLoader(Context context) {
+        this(context, null);
+    }
+
+    /**
+     * 新しいインスタンスを作成する
+     *
+     * @param context コンテキスト
+     * @param saved アクティビティが保存していたアカウント情報。ない場合は{@code null}
+     */
+    public AccountLoader(Context context, ParcelableGroupedList saved) {
+        super(context);
+        mSnapshotCache = AccountSnapshotCache.getInstance(context);
+        mSnapshotCache.addOnInvalidateListener(this);
+        mSavedGroupedList = saved;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public GroupedList loadInBackground() {
+        // よく使うアカウントの選択履歴は、AccountSnapshotCacheに保持する時点で読み込まれる
+        final int generation = mSnapshotCache.getGeneration();
+        final GroupedList snapshot = mSnapshotCache.restore(mSavedGroupedList);
+        // 一度使えば不要になる
+        mSavedGroupedList = null;
+        final boolean stale = snapshot != null && mSnapshotCache.isStale(snapshot);
+        if (snapshot != null && !(stale && mRevalidating)) {
+            // サービスやプロバイダが保持した場合は変換されていない
+            mSnapshotCache.prepareParcelable(snapshot);
+            return snapshot;
+        }
+
+        // ラベル名のキャッシュの読み込みもディスクアクセスになるので、UIスレッドでは作成しない
+        if (mAccountFetcher == null) {
+            mAccountFetcher = new AccountFetcher(getContext());
+        }
+        final GroupedList groupedList = mAccountFetcher.fetch();
+        if (groupedList != null) {
+            // 検索用のインデックスもUIスレッドで作成しないようにする
+            groupedList.getIndex();
+            // 確認した結果が保存されていたものと同じ場合は保存し直さない
+            final boolean changed = !stale || !GroupedListDiff.compute(snapshot, groupedList).isEmpty();
+            // ラベル名が間に合わなかった場合は、作り直されるまで保存しない
+            if (mSnapshotCache.put(groupedList, generation) && !mAccountFetcher.isProvisional()) {
+                if (changed) {
+                    // 次にプロセスが起動した時は読み込むだけで済むようにする
+                    new SnapshotStore(getContext()).write(groupedList);
+                }
+                mSnapshotCache.prepareParcelable(groupedList);
+            }
+        }
+        return groupedList;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void deliverResult(GroupedList data) {
+        if (isReset()) {
+            return;
+        }
+        mGroupedList = data;
+
+        if (isStarted()) {
+            super.deliverResult(data);
+        }
+
+        // 保存されていたアカウント情報を表示した後に、最新のアカウント情報を読み込む
+        mRevalidating = data != null && mSnapshotCache.isStale(data);
+        if (mRevalidating) {
+            onContentChanged();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void onStartLoading() {
+        // 既に読み込まれている場合はバックグラウンドの処理も不要
+        if (mGroupedList == null) {
+            mGroupedList = mSnapshotCache.get();
+        }
+        if (mGroupedList != null) {
+            deliverResult(mGroupedList);
+        }
+        if (takeContentChanged() || mGroupedList == null) {
+            forceLoad();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean onCancelLoad() {
+        final AccountFetcher fetcher = mAccountFetcher;
+        if (fetcher != null) {
+            fetcher.cancel();
+        }
+        return super.onCancelLoad();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        onStopLoading();
+        mSnapshotCache.removeOnInvalidateListener(this);
+        mGroupedList = null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onInvalidate() {
+        mGroupedList = null;
+        onContentChanged();
+    }
+}
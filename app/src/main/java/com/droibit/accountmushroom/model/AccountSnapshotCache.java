@@ -0,0 +1,337 @@
+package com.droibit.accountmushroom.model;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.accounts.OnAccountsUpdateListener;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+
+import com.droibit.accountmushroom.R;
+import com.droibit.accountmushroom.SettingsActivity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 読み込んだアカウント情報をプロセス内で保持するクラス。<br>
+ * アカウントの追加・削除、非表示にするアカウントの設定が変更された場合に破棄する。<br>
+ * 非表示にするアカウントタイプは{@link AccountTypeTable}で保持し、設定が変更されるたびに更新する。<br>
+ * {@link SnapshotStore}から読み込んだアカウント情報は、{@link android.accounts.AccountManager}で確認するまで古い可能性があるものとして扱う。<br>
+ * 保持したアカウント情報はUIスレッドでそのまま表示されるので、保持する前に{@link SelectionLog}も読み込んでおく。
+ *
+ * @author kumagai
+ */
+public final class AccountSnapshotCache
+        implements OnAccountsUpdateListener, SharedPreferences.OnSharedPreferenceChangeListener {
+
+    /**
+     * キャッシュが破棄されたことを通知するためのリスナ
+     */
+    public interface OnInvalidateListener {
+
+        /**
+         * キャッシュが破棄された時に呼ばれる（UIスレッド）
+         */
+        void onInvalidate();
+    }
+
+    /** アカウントの変更をまとめて通知するまでの待ち時間（ミリ秒） */
+    private static final long COALESCE_DELAY_MILLIS = 500;
+
+    private static AccountSnapshotCache sInstance;
+
+    private final Context mContext;
+
+    /** 非表示にするアカウントのプレファレンスのキー */
+    private final String mHideAccountsKey;
+
+    private final Handler mHandler;
+
+    private final List<OnInvalidateListener> mListeners;
+
+    /** アカウントタイプのIDと非表示にするアカウントタイプ */
+    private final AccountTypeTable mTypeTable;
+
+    /** 非表示にするアカウントタイプを読み込み済みかどうか */
+    private boolean mHiddenTypesLoaded;
+
+    /** 読み込み済みのアカウント情報 */
+    private GroupedList mSnapshot;
+
+    /** 保持しているアカウント情報が古い可能性があるかどうか */
+    private boolean mStale;
+
+    /** 保持しているアカウント情報をアクティビティの状態に保存するための形式。大きすぎる場合は{@code null} */
+    private ParcelableGroupedList mParcelable;
+
+    /** {@link #mParcelable}を作成済みかどうか */
+    private boolean mParcelablePrepared;
+
+    /** 破棄されるたびに増える世代番号 */
+    private int mGeneration;
+
+    /** {@link AccountManager}のリスナを登録済みかどうか */
+    private boolean mAccountsListening;
+
+    /** まとめて通知する */
+    private final Runnable mNotifyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            notifyInvalidate();
+        }
+    };
+
+    /**
+     * インスタンスを取得する
+     *
+     * @param context コンテキスト
+     * @return プロセスで共有するインスタンス
+     */
+    public static synchronized AccountSnapshotCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AccountSnapshotCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private AccountSnapshotCache(Context context) {
+        mContext = context;
+        mHideAccountsKey = context.getString(R.string.pref_filter_key_select_account);
+        mHandler = new Handler(Looper.getMainLooper());
+        mListeners = new ArrayList<>();
+        mTypeTable = new AccountTypeTable();
+
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .registerOnSharedPreferenceChangeListener(this);
+    }
+
+    /**
+     * 保持しているアカウント情報を取得する
+     *
+     * @return アカウント情報。保持していない場合は{@code null}
+     */
+    public synchronized GroupedList get() {
+        return mSnapshot;
+    }
+
+    /**
+     * 保持しているアカウント情報を取得する。<br>
+     * 保持しておらず、プロセスの起動後にアカウント情報が変更されていない場合は、
+     * {@link SnapshotStore}に保存されたアカウント情報を読み込んで保持する（バックグラウンドスレッド）。
+     *
+     * @return アカウント情報。保持も保存もされていない場合は{@code null}
+     */
+    public GroupedList restore() {
+        return restore(null);
+    }
+
+    /**
+     * 保持しているアカウント情報を取得する。<br>
+     * 保持していない場合は{@link #restore()}と同様に読み込むが、
+     * アクティビティが保存していたアカウント情報がある場合はファイルより先にそれを使う（バックグラウンドスレッド）。
+     *
+     * @param saved アクティビティが保存していたアカウント情報。ない場合は{@code null}
+     * @return アカウント情報。保持も保存もされていない場合は{@code null}
+     */
+    public GroupedList restore(ParcelableGroupedList saved) {
+        final int generation;
+        synchronized (this) {
+            if (mSnapshot != null) {
+                return mSnapshot;
+            }
+            // 変更された後は保存されたアカウント情報が古い可能性がある
+            if (mGeneration != 0) {
+                return null;
+            }
+            generation = mGeneration;
+        }
+
+        final SnapshotStore store = new SnapshotStore(mContext);
+        GroupedList stored = saved != null ? saved.toGroupedList(store.createStamp()) : null;
+        if (stored == null) {
+            stored = store.read();
+        }
+        if (stored == null) {
+            return null;
+        }
+        stored.getIndex();
+        SelectionLog.getInstance(mContext).load();
+        return put(stored, generation, true) ? stored : null;
+    }
+
+    /**
+     * 保存されていたアカウント情報で、まだ確認していないかどうか
+     *
+     * @param snapshot アカウント情報
+     * @return 確認していない場合は{@code true}
+     */
+    public synchronized boolean isStale(GroupedList snapshot) {
+        return mStale && snapshot == mSnapshot;
+    }
+
+    /**
+     * 保持しているアカウント情報を、アクティビティの状態に保存するための形式で取得する。<br>
+     * {@link #prepareParcelable(GroupedList)}で作成しておいたものを返すので、UIスレッドで変換しない。
+     *
+     * @return 保存するための形式。作成していない場合や確認していない場合、大きすぎる場合は{@code null}
+     */
+    public synchronized ParcelableGroupedList getParcelable() {
+        return mStale ? null : mParcelable;
+    }
+
+    /**
+     * 保持しているアカウント情報を、アクティビティの状態に保存するための形式に変換しておく（バックグラウンドスレッド）。<br>
+     * 保持しているものと異なる場合や確認していない場合、作成済みの場合は何もしない。
+     *
+     * @param snapshot アカウント情報
+     */
+    public void prepareParcelable(GroupedList snapshot) {
+        synchronized (this) {
+            if (snapshot != mSnapshot || mStale || mParcelablePrepared) {
+                return;
+            }
+        }
+        final ParcelableGroupedList parcelable =
+                ParcelableGroupedList.from(snapshot, new SnapshotStore(mContext).createStamp());
+        synchronized (this) {
+            // 変換中に破棄された場合
+            if (snapshot == mSnapshot) {
+                mParcelable = parcelable;
+                mParcelablePrepared = true;
+            }
+        }
+    }
+
+    /**
+     * アカウントタイプのIDと非表示にするアカウントタイプを取得する。<br>
+     * 初回はプレファレンスを読み込むので、UIスレッドでは呼び出さないこと。
+     *
+     * @return プロセスで共有するアカウントタイプの表
+     */
+    public AccountTypeTable getTypeTable() {
+        synchronized (mTypeTable) {
+            if (!mHiddenTypesLoaded) {
+                mTypeTable.setHiddenTypes(SettingsActivity.getHideAccounts(mContext));
+                mHiddenTypesLoaded = true;
+            }
+        }
+        return mTypeTable;
+    }
+
+    /**
+     * 現在の世代番号を取得する。<br>
+     * 読み込みを始める前に取得し、{@link #put(GroupedList, int)}に渡す。
+     *
+     * @return 世代番号
+     */
+    public synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * 読み込んだアカウント情報を保持する（バックグラウンドスレッド）。<br>
+     * 読み込み中に破棄された場合は古い情報になるので保持しない。
+     *
+     * @param snapshot アカウント情報
+     * @param generation 読み込みを始めた時点の世代番号
+     * @return 保持した場合は{@code true}
+     */
+    public boolean put(GroupedList snapshot, int generation) {
+        // サービスやプロバイダが保持した場合も、よく使うアカウントを表示できるようにする
+        SelectionLog.getInstance(mContext).load();
+        return put(snapshot, generation, false);
+    }
+
+    private synchronized boolean put(GroupedList snapshot, int generation, boolean stale) {
+        if (generation != mGeneration) {
+            return false;
+        }
+        mSnapshot = snapshot;
+        mStale = stale;
+        mParcelable = null;
+        mParcelablePrepared = false;
+
+        // 読み込めた時点で権限は得られているので、ここでリスナを登録する
+        if (!mAccountsListening) {
+            mAccountsListening = true;
+            AccountManager.get(mContext).addOnAccountsUpdatedListener(this, mHandler, false);
+        }
+        return true;
+    }
+
+    /**
+     * 保持しているアカウント情報を破棄する
+     */
+    public synchronized void invalidate() {
+        mSnapshot = null;
+        mStale = false;
+        mParcelable = null;
+        mParcelablePrepared = false;
+        mGeneration++;
+    }
+
+    /**
+     * 保持しているアカウント情報を破棄し、UIスレッドでリスナに通知する。<br>
+     * 遅れて読み込めたラベル名で作り直させる場合など、バックグラウンドスレッドから呼び出す。
+     */
+    public void requestRebuild() {
+        invalidate();
+        mHandler.removeCallbacks(mNotifyRunnable);
+        mHandler.post(mNotifyRunnable);
+    }
+
+    /**
+     * 破棄されたことを通知するリスナを登録する（UIスレッド）
+     *
+     * @param listener リスナ
+     */
+    public void addOnInvalidateListener(OnInvalidateListener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * 破棄されたことを通知するリスナを解除する（UIスレッド）
+     *
+     * @param listener リスナ
+     */
+    public void removeOnInvalidateListener(OnInvalidateListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onAccountsUpdated(Account[] accounts) {
+        // 同期の設定中などは続けて呼ばれるので、最後の変更から少し待ってまとめて通知する
+        invalidate();
+        mHandler.removeCallbacks(mNotifyRunnable);
+        mHandler.postDelayed(mNotifyRunnable, COALESCE_DELAY_MILLIS);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if (mHideAccountsKey.equals(key)) {
+            // 次に読み込む時はプレファレンスを読まずにビットセットを参照する
+            synchronized (mTypeTable) {
+                mTypeTable.setHiddenTypes(SettingsActivity.getHideAccounts(mContext));
+                mHiddenTypesLoaded = true;
+            }
+            invalidateAndNotify();
+        }
+    }
+
+    private void invalidateAndNotify() {
+        invalidate();
+        mHandler.removeCallbacks(mNotifyRunnable);
+        notifyInvalidate();
+    }
+
+    private void notifyInvalidate() {
+        for (int i = mListeners.size() - 1; i >= 0; i--) {
+            mListeners.get(i).onInvalidate();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.droibit.accountmushroom.model;
+
+import android.accounts.AccountManager;
+import android.accounts.AuthenticatorDescription;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+
+import com.droibit.accountmushroom.utils.LatencyTracer;
+import com.droibit.accountmushroom.utils.MainThreadWatchdog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 端末の認証システムの情報をプロセス内で共有するクラス。<br>
+ * 最初に必要になった時点で{@link AccountManager#getAuthenticatorTypes()}を呼び出し、
+ * 以降はパッケージが追加・削除・更新されるまで読み込み直さない。
+ *
+ * @author kumagai
+ */
+public final class AuthenticatorRegistry {
+
+    /**
+     * 認証システムを持つ可能性のあるパッケージが変更されたことを通知するためのリスナ
+     */
+    public interface OnPackageChangeListener {
+
+        /**
+         * パッケージが追加・削除・更新された時に呼ばれる（呼び出し元のスレッド）
+         *
+         * @param packageName パッケージ名
+         */
+        void onPackageChanged(String packageName);
+    }
+
+    private static AuthenticatorRegistry sInstance;
+
+    private final Context mContext;
+
+    /** {@link android.accounts.Account#type}と認証システムの情報の対応表 */
+    private final Map<String, AuthenticatorDescription> mDescriptions;
+
+    private final List<OnPackageChangeListener> mListeners;
+
+    /** 読み込み直す必要があるかどうか */
+    private boolean mStale;
+
+    /** パッケージの変更を監視しているかどうか */
+    private boolean mPackageListening;
+
+    /**
+     * パッケージの追加・削除・更新を受け取るレシーバ
+     */
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            if (data == null) {
+                return;
+            }
+            final boolean replacing = intent.getBooleanExtra(Intent.EXTRA_REPLACING, false);
+            if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction()) && !replacing) {
+                removePackage(data.getSchemeSpecificPart());
+            } else {
+                // 追加・更新されたパッケージの認証システムは一覧を取得し直さないとわからない
+                markStale(data.getSchemeSpecificPart());
+            }
+        }
+    };
+
+    /**
+     * インスタンスを取得する
+     *
+     * @param context コンテキスト
+     * @return プロセスで共有するインスタンス
+     */
+    public static synchronized AuthenticatorRegistry getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AuthenticatorRegistry(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private AuthenticatorRegistry(Context context) {
+        mContext = context;
+        mDescriptions = new HashMap<>();
+        mListeners = new ArrayList<>();
+        mStale = true;
+    }
+
+    /**
+     * パッケージの変更を通知するリスナを追加する
+     *
+     * @param listener リスナ
+     */
+    public synchronized void addOnPackageChangeListener(OnPackageChangeListener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    /**
+     * 認証システムの情報を取得する。<br>
+     * 初回と、パッケージが追加・更新された後はバインダ呼び出しになるので、UIスレッドでは呼び出さないこと。
+     *
+     * @param accountType アカウントタイプ
+     * @return 認証システムの情報。存在しない場合は{@code null}
+     */
+    public synchronized AuthenticatorDescription getDescription(String accountType) {
+        ensureLoaded();
+        return mDescriptions.get(accountType);
+    }
+
+    /**
+     * パッケージが認証システムを持っているかどうか。<br>
+     * 読み込み直す必要がある場合はバインダ呼び出しになるので、UIスレッドでは呼び出さないこと。
+     *
+     * @param packageName パッケージ名
+     * @return 認証システムを持っている場合は{@code true}
+     */
+    public synchronized boolean hasPackage(String packageName) {
+        ensureLoaded();
+        for (AuthenticatorDescription desc : mDescriptions.values()) {
+            if (packageName.equals(desc.packageName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * パッケージが追加・更新されたので、保持している情報を破棄し、次に必要になった時点で読み込み直す
+     *
+     * @param packageName 追加・更新されたパッケージ名
+     */
+    public synchronized void markStale(String packageName) {
+        mStale = true;
+        notifyPackageChanged(packageName);
+    }
+
+    private synchronized void removePackage(String packageName) {
+        final Iterator<AuthenticatorDescription> iterator = mDescriptions.values().iterator();
+        while (iterator.hasNext()) {
+            if (packageName.equals(iterator.next().packageName)) {
+                iterator.remove();
+            }
+        }
+        notifyPackageChanged(packageName);
+    }
+
+    private void notifyPackageChanged(String packageName) {
+        for (OnPackageChangeListener listener : mListeners) {
+            listener.onPackageChanged(packageName);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (!mStale) {
+            return;
+        }
+
+        final long start = LatencyTracer.begin();
+        final long watchStart = MainThreadWatchdog.begin();
+        final AuthenticatorDescription[] authDescs = AccountManager.get(mContext).getAuthenticatorTypes();
+        MainThreadWatchdog.end(MainThreadWatchdog.CALL_GET_AUTHENTICATOR_TYPES, watchStart);
+        LatencyTracer.end(LatencyTracer.SPAN_AUTHENTICATORS, start);
+
+        mDescriptions.clear();
+        for (AuthenticatorDescription desc : authDescs) {
+            mDescriptions.put(desc.type, desc);
+        }
+        mStale = false;
+
+        // 削除された認証システムのキャッシュを破棄しておく
+        new LabelCache(mContext).retainAll(mDescriptions.keySet());
+
+        if (!mPackageListening) {
+            mPackageListening = true;
+            final IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+            filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+            filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+            filter.addDataScheme("package");
+            mContext.registerReceiver(mPackageReceiver, filter);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.droibit.accountmushroom.model;
+
+import android.accounts.AuthenticatorDescription;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+
+import com.droibit.accountmushroom.utils.MainThreadWatchdog;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 認証システムのラベル名をディスクにキャッシュするクラス。<br>
+ * パッケージのバージョン、最終更新日時、ロケールを合わせて保存しておき、
+ * パッケージが更新・削除された場合のみエントリを破棄する。
+ *
+ * @author kumagai
+ */
+final class LabelCache {
+
+    /** キャッシュを保存するプレファレンス名 */
+    private static final String PREF_NAME = "label_cache";
+
+    /** ラベル名のキーのプレフィックス */
+    private static final String PREFIX_LABEL = "label:";
+
+    /** スタンプのキーのプレフィックス */
+    private static final String PREFIX_STAMP = "stamp:";
+
+    /** パッケージが見つからない場合のスタンプ（見つかった場合のスタンプは空にならない） */
+    private static final String STAMP_NOT_FOUND = "";
+
+    private final SharedPreferences mPrefs;
+
+    private final PackageManager mPackageManager;
+
+    /** パッケージ名とスタンプの対応表（ラベル名の読み込みスレッドからも参照する） */
+    private final Map<String, String> mStamps;
+
+    /**
+     * 新しいインスタンスを作成する
+     *
+     * @param context コンテキスト
+     */
+    LabelCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        mPackageManager = context.getPackageManager();
+        mStamps = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * キャッシュしたラベル名を取得する。<br>
+     * パッケージが更新または削除されている場合は、エントリを破棄して{@code null}を返す。
+     *
+     * @param desc 認証システムの情報
+     * @return ラベル名。キャッシュが無効な場合は{@code null}
+     */
+    String get(AuthenticatorDescription desc) {
+        // 初回はファイルの読み込みが終わるまで待つことになる
+        final long watchStart = MainThreadWatchdog.begin();
+        final String label = mPrefs.getString(PREFIX_LABEL + desc.type, null);
+        MainThreadWatchdog.end(MainThreadWatchdog.CALL_SHARED_PREFERENCES_PREFIX + PREF_NAME, watchStart);
+        if (label == null) {
+            return null;
+        }
+
+        final String stamp = getStamp(desc.packageName);
+        if (stamp.equals(mPrefs.getString(PREFIX_STAMP + desc.type, null))) {
+            return label;
+        }
+        remove(desc.type);
+        return null;
+    }
+
+    /**
+     * ラベル名をキャッシュする
+     *
+     * @param desc 認証システムの情報
+     * @param label ラベル名
+     */
+    void put(AuthenticatorDescription desc, String label) {
+        final String stamp = getStamp(desc.packageName);
+        if (STAMP_NOT_FOUND.equals(stamp)) {
+            return;
+        }
+        mPrefs.edit()
+                .putString(PREFIX_LABEL + desc.type, label)
+                .putString(PREFIX_STAMP + desc.type, stamp)
+                .apply();
+    }
+
+    /**
+     * 指定したアカウントタイプ以外のエントリを破棄する。<br>
+     * 認証システムのパッケージが削除された場合に対応する。
+     *
+     * @param types 端末に存在するアカウントタイプ
+     */
+    void retainAll(Collection<String> types) {
+        SharedPreferences.Editor editor = null;
+        for (String key : mPrefs.getAll().keySet()) {
+            if (!key.startsWith(PREFIX_LABEL)) {
+                continue;
+            }
+            final String type = key.substring(PREFIX_LABEL.length());
+            if (types.contains(type)) {
+                continue;
+            }
+            if (editor == null) {
+                editor = mPrefs.edit();
+            }
+            editor.remove(key).remove(PREFIX_STAMP + type);
+        }
+        if (editor != null) {
+            editor.apply();
+        }
+    }
+
+    private void remove(String type) {
+        mPrefs.edit()
+                .remove(PREFIX_LABEL + type)
+                .remove(PREFIX_STAMP + type)
+                .apply();
+    }
+
+    private String getStamp(String packageName) {
+        String stamp = mStamps.get(packageName);
+        if (stamp != null) {
+            return stamp;
+        }
+
+        try {
+            final PackageInfo info = mPackageManager.getPackageInfo(packageName, 0);
+            stamp = info.versionCode + "/" + info.lastUpdateTime + "/" + Locale.getDefault();
+        } catch (PackageManager.NameNotFoundException e) {
+            stamp = STAMP_NOT_FOUND;
+        }
+        mStamps.put(packageName, stamp);
+        return stamp;
+    }
+}
@@ -0,0 +1,91 @@
+package com.droibit.accountmushroom.model;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link GroupedList}を{@link android.os.Bundle}に保存するための{@link Parcelable}。<br>
+ * {@link SnapshotCodec}の形式（重複を除いた文字列表と位置の配列）のバイト列をそのまま書き込み、
+ * 復元する時も文字列は取得された時点で変換する。
+ *
+ * @author kumagai
+ */
+public final class ParcelableGroupedList implements Parcelable {
+
+    private static final String TAG = ParcelableGroupedList.class.getSimpleName();
+
+    /** {@link android.os.Bundle}に保存する最大のバイト数（他の状態と合わせてもトランザクションの上限を大きく下回るようにする） */
+    private static final int MAX_BYTES = 64 * 1024;
+
+    public static final Creator<ParcelableGroupedList> CREATOR = new Creator<ParcelableGroupedList>() {
+        @Override
+        public ParcelableGroupedList createFromParcel(Parcel source) {
+            return new ParcelableGroupedList(source.createByteArray());
+        }
+
+        @Override
+        public ParcelableGroupedList[] newArray(int size) {
+            return new ParcelableGroupedList[size];
+        }
+    };
+
+    private final byte[] mBytes;
+
+    private ParcelableGroupedList(byte[] bytes) {
+        mBytes = bytes;
+    }
+
+    /**
+     * 保存するための形式に変換する
+     *
+     * @param groupedList アカウント情報
+     * @param stamp 作成した時の条件（{@link SnapshotStore#createStamp()}）
+     * @return 変換した結果。大きすぎる場合は{@code null}
+     */
+    public static ParcelableGroupedList from(GroupedList groupedList, String stamp) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            SnapshotCodec.write(out, groupedList, stamp);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to encode accounts.", e);
+            return null;
+        }
+        // 大きい場合は保存せず、SnapshotStoreから読み込み直す
+        if (out.size() > MAX_BYTES) {
+            return null;
+        }
+        return new ParcelableGroupedList(out.toByteArray());
+    }
+
+    /**
+     * アカウント情報に戻す
+     *
+     * @param stamp 現在の条件
+     * @return アカウント情報。条件が異なる場合や壊れている場合は{@code null}
+     */
+    public GroupedList toGroupedList(String stamp) {
+        try {
+            return SnapshotCodec.read(ByteBuffer.wrap(mBytes), stamp);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to decode accounts.", e);
+            return null;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeByteArray(mBytes);
+    }
+}
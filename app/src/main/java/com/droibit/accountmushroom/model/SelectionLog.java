@@ -0,0 +1,288 @@
+package com.droibit.accountmushroom.model;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 選択されたアカウントを記録するクラス。<br>
+ * 選択のたびにファイルの末尾へ追記し、記録が増えたらアカウントごとに1件へまとめ直す。
+ * 選択回数と最終選択日時はメモリ上に保持するので、ファイルを読まずに参照できる。
+ *
+ * @author kumagai
+ */
+public final class SelectionLog {
+
+    private static final String TAG = SelectionLog.class.getSimpleName();
+
+    /** 記録するファイル名 */
+    private static final String FILE_NAME = "selection.log";
+
+    /** まとめ直す記録の数（アカウントの種類に対する倍率） */
+    private static final int COMPACTION_FACTOR = 4;
+
+    /** まとめ直す最小の記録の数 */
+    private static final int COMPACTION_MIN_RECORDS = 64;
+
+    private static SelectionLog sInstance;
+
+    /**
+     * 選択回数と最終選択日時
+     */
+    private static final class Score {
+
+        int count;
+
+        long lastSelected;
+    }
+
+    private final File mFile;
+
+    /** ファイルへの書き込みはUIスレッドで行わない */
+    private final ExecutorService mExecutor;
+
+    /** アカウント名と選択回数の対応表 */
+    private final Map<String, Score> mScores;
+
+    /** ファイル内の記録の数 */
+    private int mRecordCount;
+
+    /** メモリ上には反映済みで、ファイルへ追記していない記録の数 */
+    private int mPendingCount;
+
+    /** ファイルを読み込み済みかどうか */
+    private volatile boolean mLoaded;
+
+    /**
+     * インスタンスを取得する
+     *
+     * @param context コンテキスト
+     * @return プロセスで共有するインスタンス
+     */
+    public static synchronized SelectionLog getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SelectionLog(new File(context.getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    private SelectionLog(File file) {
+        mFile = file;
+        mExecutor = Executors.newSingleThreadExecutor();
+        mScores = new HashMap<>();
+    }
+
+    /**
+     * ファイルから記録を読み込む。<br>
+     * 読み込み済みの場合は何もしないので、バックグラウンドで何度呼び出してもよい。
+     */
+    public void load() {
+        if (mLoaded) {
+            return;
+        }
+
+        synchronized (this) {
+            if (mLoaded) {
+                return;
+            }
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+                while (true) {
+                    final String name = in.readUTF();
+                    final int count = in.readInt();
+                    final long lastSelected = in.readLong();
+                    addScore(name, count, lastSelected);
+                    mRecordCount++;
+                }
+            } catch (FileNotFoundException e) {
+                // まだ何も選択されていない
+            } catch (EOFException e) {
+                // 末尾まで読み込んだ
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read selection log.", e);
+            } finally {
+                closeQuietly(in);
+            }
+            mLoaded = true;
+        }
+    }
+
+    /**
+     * アカウントが選択されたことを記録する。<br>
+     * メモリ上の選択回数のみ更新し、ファイルへの追記はバックグラウンドで行う。
+     *
+     * @param name アカウント名
+     */
+    public void record(final String name) {
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            addScore(name, 1, now);
+            mPendingCount++;
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // 追記する前に既存の記録を読み込んでおかないと、まとめ直した時に消えてしまう
+                load();
+                append(name, now);
+            }
+        });
+    }
+
+    /**
+     * 選択回数の多い順にアカウント名を取得する。<br>
+     * 選択回数が同じ場合は最後に選択された順にする。
+     *
+     * @param groupedList 表示するアカウント情報。含まれないアカウントは除外する
+     * @param limit 取得する最大数
+     * @return アカウント名の配列
+     */
+    public synchronized String[] getTopNames(GroupedList groupedList, int limit) {
+        final String[] names = new String[limit];
+        final Score[] scores = new Score[limit];
+        int size = 0;
+
+        for (Map.Entry<String, Score> entry : mScores.entrySet()) {
+            final Score score = entry.getValue();
+            if (size == limit && !isHigher(score, scores[size - 1])) {
+                continue;
+            }
+            if (!groupedList.getIndex().containsChild(entry.getKey())) {
+                continue;
+            }
+
+            // 上位の数件だけを挿入ソートで保持する
+            int i = size < limit ? size++ : size - 1;
+            while (i > 0 && isHigher(score, scores[i - 1])) {
+                names[i] = names[i - 1];
+                scores[i] = scores[i - 1];
+                i--;
+            }
+            names[i] = entry.getKey();
+            scores[i] = score;
+        }
+
+        if (size == limit) {
+            return names;
+        }
+        final String[] result = new String[size];
+        System.arraycopy(names, 0, result, 0, size);
+        return result;
+    }
+
+    private void addScore(String name, int count, long lastSelected) {
+        Score score = mScores.get(name);
+        if (score == null) {
+            score = new Score();
+            mScores.put(name, score);
+        }
+        score.count += count;
+        score.lastSelected = Math.max(score.lastSelected, lastSelected);
+    }
+
+    private static boolean isHigher(Score lhs, Score rhs) {
+        if (lhs.count != rhs.count) {
+            return lhs.count > rhs.count;
+        }
+        return lhs.lastSelected > rhs.lastSelected;
+    }
+
+    /**
+     * 記録をファイルの末尾に追記する（バックグラウンドスレッド）
+     */
+    private void append(String name, long selectedAt) {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true)));
+            out.writeUTF(name);
+            out.writeInt(1);
+            out.writeLong(selectedAt);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to append selection log.", e);
+        } finally {
+            closeQuietly(out);
+        }
+
+        final List<String> names;
+        final List<Score> scores;
+        synchronized (this) {
+            mRecordCount++;
+            mPendingCount--;
+            // 追記待ちの記録があるとまとめ直した後に二重に数えてしまうので、なくなるまで待つ
+            if (mPendingCount > 0
+                    || mRecordCount <= Math.max(COMPACTION_MIN_RECORDS, mScores.size() * COMPACTION_FACTOR)) {
+                return;
+            }
+            names = new ArrayList<>(mScores.keySet());
+            scores = new ArrayList<>(names.size());
+            for (String key : names) {
+                final Score source = mScores.get(key);
+                final Score score = new Score();
+                score.count = source.count;
+                score.lastSelected = source.lastSelected;
+                scores.add(score);
+            }
+        }
+        compact(names, scores);
+    }
+
+    /**
+     * アカウントごとに1件の記録へまとめ直す（バックグラウンドスレッド）
+     */
+    private void compact(List<String> names, List<Score> scores) {
+        final File tempFile = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            for (int i = 0, size = names.size(); i < size; i++) {
+                out.writeUTF(names.get(i));
+                out.writeInt(scores.get(i).count);
+                out.writeLong(scores.get(i).lastSelected);
+            }
+            out.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to compact selection log.", e);
+            closeQuietly(out);
+            tempFile.delete();
+            return;
+        }
+
+        if (tempFile.renameTo(mFile)) {
+            synchronized (this) {
+                mRecordCount = names.size();
+            }
+        } else {
+            tempFile.delete();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // 何もしない
+        }
+    }
+}
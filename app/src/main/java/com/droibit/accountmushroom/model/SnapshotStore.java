@@ -0,0 +1,137 @@
+package com.droibit.accountmushroom.model;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.droibit.accountmushroom.SettingsActivity;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 作成済みのアカウント情報をファイルに保存するクラス。<br>
+ * アカウントやパッケージが変更された時にバックグラウンドで作成して保存しておき、
+ * マッシュルームの起動時は{@link android.accounts.AccountManager}を呼び出さずに読み込むだけにする。<br>
+ * ロケールと非表示にするアカウントタイプが保存した時と異なる場合は使わない。
+ *
+ * @author kumagai
+ */
+public final class SnapshotStore {
+
+    private static final String TAG = SnapshotStore.class.getSimpleName();
+
+    /** 保存するファイル名 */
+    private static final String FILE_NAME = "accounts.snapshot";
+
+    private final Context mContext;
+
+    private final File mFile;
+
+    /**
+     * 新しいインスタンスを作成する
+     *
+     * @param context コンテキスト
+     */
+    public SnapshotStore(Context context) {
+        mContext = context;
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * 保存したアカウント情報を読み込む（バックグラウンドスレッド）。<br>
+     * ファイルはメモリにマップし、返したアカウント情報は文字列を取得された時点でファイルから変換する。
+     * 壊れている場合は削除し、{@code null}を返す。
+     *
+     * @return アカウント情報。保存されていない場合や条件が異なる場合は{@code null}
+     */
+    public GroupedList read() {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "r");
+            final FileChannel channel = file.getChannel();
+            // マップした領域はファイルを閉じたり置き換えたりしても参照できる
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return SnapshotCodec.read(buffer, createStamp());
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read account snapshot.", e);
+            delete();
+            return null;
+        } finally {
+            closeQuietly(file);
+        }
+    }
+
+    /**
+     * アカウント情報を保存する（バックグラウンドスレッド）。<br>
+     * 書き込み中に読み込まれても壊れたファイルを読まないように、一時ファイルに書いて同期してから置き換える。
+     * ローダとサービスなどから同時に呼ばれても互いの書き込みを壊さないように、一時ファイルは呼び出しごとに作成する。
+     *
+     * @param groupedList アカウント情報
+     */
+    public void write(GroupedList groupedList) {
+        File tempFile = null;
+        FileOutputStream out = null;
+        try {
+            tempFile = File.createTempFile(FILE_NAME, ".tmp", mFile.getParentFile());
+            out = new FileOutputStream(tempFile);
+            final BufferedOutputStream buffered = new BufferedOutputStream(out);
+            SnapshotCodec.write(buffered, groupedList, createStamp());
+            buffered.flush();
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(mFile)) {
+                throw new IOException("Failed to rename " + tempFile);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write account snapshot.", e);
+            closeQuietly(out);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * 保存したアカウント情報を削除する
+     */
+    public void delete() {
+        mFile.delete();
+    }
+
+    /**
+     * アカウント情報を作成した条件を表す文字列を作成する。<br>
+     * 非表示にするアカウントタイプのプレファレンスを読むので、なるべくバックグラウンドで呼び出す。
+     *
+     * @return ロケールと非表示にするアカウントタイプを表す文字列
+     */
+    public String createStamp() {
+        final List<String> hiddenTypes = new ArrayList<>(SettingsActivity.getHideAccounts(mContext));
+        Collections.sort(hiddenTypes);
+        return Locale.getDefault() + "|" + hiddenTypes;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // 何もしない
+        }
+    }
+}
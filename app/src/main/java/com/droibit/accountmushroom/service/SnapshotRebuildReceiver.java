@@ -0,0 +1,34 @@
+package com.droibit.accountmushroom.service;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+
+/**
+ * アカウント、認証システムのパッケージ、ロケールの変更を受け取り、
+ * {@link SnapshotRebuildService}でアカウント情報を作成し直すレシーバ。
+ *
+ * @author kumagai
+ */
+public class SnapshotRebuildReceiver extends BroadcastReceiver {
+
+    /** {@inheritDoc} */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final String action = intent.getAction();
+        if (Intent.ACTION_PACKAGE_REPLACED.equals(action) || Intent.ACTION_PACKAGE_REMOVED.equals(action)) {
+            // 更新の途中で届く削除は、続けて届く置き換えで処理する
+            if (Intent.ACTION_PACKAGE_REMOVED.equals(action)
+                    && intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+                return;
+            }
+            final Uri data = intent.getData();
+            if (data != null) {
+                SnapshotRebuildService.start(context, data.getSchemeSpecificPart());
+            }
+            return;
+        }
+        SnapshotRebuildService.start(context, null);
+    }
+}
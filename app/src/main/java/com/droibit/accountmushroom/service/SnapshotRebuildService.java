@@ -0,0 +1,82 @@
+package com.droibit.accountmushroom.service;
+
+import android.Manifest;
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+
+import com.droibit.accountmushroom.AccountContract;
+import com.droibit.accountmushroom.model.AccountFetcher;
+import com.droibit.accountmushroom.model.AccountSnapshotCache;
+import com.droibit.accountmushroom.model.AuthenticatorRegistry;
+import com.droibit.accountmushroom.model.GroupedList;
+import com.droibit.accountmushroom.model.SnapshotStore;
+import com.droibit.accountmushroom.utils.PermissionChecker;
+
+/**
+ * アカウント情報をバックグラウンドで作成し直して保存するサービス。<br>
+ * {@link SnapshotRebuildReceiver}から起動され、次にマッシュルームを起動した時は保存した結果を読み込むだけで済むようにする。<br>
+ * {@link com.droibit.accountmushroom.AccountProvider}が保存されていたアカウント情報を返した場合も起動され、確認した結果を保持する。
+ *
+ * @author kumagai
+ */
+public class SnapshotRebuildService extends IntentService {
+
+    private static final String EXTRA_PACKAGE_NAME = "package_name";
+
+    /**
+     * サービスを起動する
+     *
+     * @param context コンテキスト
+     * @param packageName 変更されたパッケージ名。パッケージの変更でない場合は{@code null}
+     */
+    public static void start(Context context, String packageName) {
+        final Intent intent = new Intent(context, SnapshotRebuildService.class);
+        intent.putExtra(EXTRA_PACKAGE_NAME, packageName);
+        context.startService(intent);
+    }
+
+    /**
+     * 新しいインスタンスを作成する
+     */
+    public SnapshotRebuildService() {
+        super(SnapshotRebuildService.class.getSimpleName());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (!PermissionChecker.hasSelfPermission(this, Manifest.permission.GET_ACCOUNTS)) {
+            return;
+        }
+
+        final String packageName = intent.getStringExtra(EXTRA_PACKAGE_NAME);
+        if (packageName != null) {
+            // 認証システムを持たないパッケージの変更はアカウント情報に影響しない
+            final AuthenticatorRegistry registry = AuthenticatorRegistry.getInstance(this);
+            registry.markStale(packageName);
+            if (!registry.hasPackage(packageName)) {
+                return;
+            }
+        }
+
+        final AccountSnapshotCache cache = AccountSnapshotCache.getInstance(this);
+        cache.invalidate();
+        final int generation = cache.getGeneration();
+        final AccountFetcher fetcher = new AccountFetcher(this);
+        final GroupedList groupedList = fetcher.fetch();
+        if (groupedList == null) {
+            return;
+        }
+        groupedList.getIndex();
+        // 作成中に変更された場合は、次の変更で作成し直す。ラベル名が間に合わなかった場合は保存しない
+        if (!cache.put(groupedList, generation)) {
+            return;
+        }
+        if (!fetcher.isProvisional()) {
+            new SnapshotStore(this).write(groupedList);
+        }
+        // プロバイダから読み込んだアプリに、保持し直したことを通知する
+        getContentResolver().notifyChange(AccountContract.Accounts.CONTENT_URI, null);
+    }
+}
@@ -0,0 +1,129 @@
+package com.droibit.accountmushroom.utils;
+
+import android.app.AlertDialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.graphics.Typeface;
+import android.os.AsyncTask;
+import android.util.Log;
+import android.widget.HorizontalScrollView;
+import android.widget.ScrollView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.droibit.accountmushroom.R;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * {@link LatencyTracer}で記録した処理時間を表示、出力するためのユーティリティクラス。
+ *
+ * @author kumagai
+ */
+public final class LatencyReport {
+
+    private static final String TAG = LatencyReport.class.getSimpleName();
+
+    /** 出力するファイル名 */
+    private static final String FILE_NAME = "latency.txt";
+
+    private LatencyReport() {
+    }
+
+    /**
+     * 処理時間のレポートをダイアログで表示する
+     *
+     * @param context コンテキスト
+     */
+    public static void show(final Context context) {
+        final TextView textView = new TextView(context);
+        final int padding = context.getResources().getDimensionPixelSize(R.dimen.activity_horizontal_margin);
+        textView.setPadding(padding, padding, padding, padding);
+        textView.setTypeface(Typeface.MONOSPACE);
+        textView.setTextIsSelectable(true);
+        textView.setText(LatencyTracer.dump());
+
+        // 列が崩れないように折り返さずにスクロールさせる
+        final HorizontalScrollView horizontalScrollView = new HorizontalScrollView(context);
+        horizontalScrollView.addView(textView);
+        final ScrollView scrollView = new ScrollView(context);
+        scrollView.addView(horizontalScrollView);
+
+        new AlertDialog.Builder(context)
+                .setTitle(R.string.title_latency_report)
+                .setView(scrollView)
+                .setPositiveButton(R.string.action_export_latency, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        exportInBackground(context);
+                    }
+                })
+                .setNeutralButton(R.string.action_reset_latency, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        LatencyTracer.reset();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * 処理時間のレポートをバックグラウンドでファイルに出力し、出力したファイルをトーストで表示する
+     *
+     * @param context コンテキスト
+     */
+    public static void exportInBackground(Context context) {
+        final Context appContext = context.getApplicationContext();
+        new AsyncTask<Void, Void, File>() {
+            @Override
+            protected File doInBackground(Void... params) {
+                return export(appContext);
+            }
+
+            @Override
+            protected void onPostExecute(File file) {
+                if (file != null) {
+                    Toast.makeText(appContext, file.getPath(), Toast.LENGTH_LONG).show();
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * 処理時間のレポートをファイルに出力する（バックグラウンドスレッド）。<br>
+     * {@code adb pull}で取り出せるように、可能な場合は外部ストレージのアプリ用ディレクトリに出力する。
+     *
+     * @param context コンテキスト
+     * @return 出力したファイル。失敗した場合は{@code null}
+     */
+    public static File export(Context context) {
+        File dir = context.getExternalFilesDir(null);
+        if (dir == null) {
+            dir = context.getFilesDir();
+        }
+
+        final File file = new File(dir, FILE_NAME);
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            writer.write(LatencyTracer.dump());
+            return file;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to export latency report.", e);
+            return null;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // 何もしない
+                }
+            }
+        }
+    }
+}
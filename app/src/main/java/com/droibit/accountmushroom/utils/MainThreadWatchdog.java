@@ -0,0 +1,259 @@
+package com.droibit.accountmushroom.utils;
+
+import android.content.Context;
+import android.os.Looper;
+import android.util.Log;
+import android.util.Printer;
+
+import com.droibit.accountmushroom.BuildConfig;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * UIスレッドで時間のかかった呼び出しと、メインルーパーの停止を記録するクラス（デバッグビルドのみ）。<br>
+ * Binder呼び出しやディスクアクセスを伴う箇所を{@link #begin()}と{@link #end(String, long)}で囲み、
+ * UIスレッドで{@link #CALL_THRESHOLD_MILLIS}を超えた場合にスタックトレースと一緒に記録する。<br>
+ * {@link #startLooperMonitor()}から{@link #stopLooperMonitor()}までの間は、
+ * メインルーパーで{@link #STALL_THRESHOLD_MILLIS}を超えたメッセージを、処理中のスタックトレースと一緒に記録する。<br>
+ * 記録した内容は{@link #flush(Context)}でファイルに出力し、テスト端末から{@code adb pull}で取り出す。
+ *
+ * @author kumagai
+ */
+public final class MainThreadWatchdog {
+
+    /** {@code AccountManager#getAccounts()} */
+    public static final String CALL_GET_ACCOUNTS = "getAccounts";
+
+    /** {@code AccountManager#getAuthenticatorTypes()} */
+    public static final String CALL_GET_AUTHENTICATOR_TYPES = "getAuthenticatorTypes";
+
+    /** {@code Context#createPackageContext(String, int)}（後ろにパッケージ名を付ける） */
+    public static final String CALL_CREATE_PACKAGE_CONTEXT_PREFIX = "createPackageContext:";
+
+    /** {@code SharedPreferences}の読み込み（後ろにファイル名を付ける） */
+    public static final String CALL_SHARED_PREFERENCES_PREFIX = "sharedPreferences:";
+
+    /** 設定画面の{@code onResume()}（権限の確認を含む） */
+    public static final String CALL_SETTINGS_RESUME = "SettingsFragment#onResume";
+
+    /** メインルーパーの停止 */
+    private static final String LOOPER_STALL = "looperStall";
+
+    private static final String TAG = MainThreadWatchdog.class.getSimpleName();
+
+    /** 出力するファイル名 */
+    private static final String FILE_NAME = "watchdog.txt";
+
+    /** 記録する呼び出しの処理時間（1フレーム分） */
+    private static final long CALL_THRESHOLD_MILLIS = 16;
+
+    /** 記録するメインルーパーの停止時間 */
+    private static final long STALL_THRESHOLD_MILLIS = 48;
+
+    /** 保持する記録の最大数（古いものから破棄する） */
+    private static final int MAX_RECORDS = 64;
+
+    /** 記録するスタックトレースの最大の深さ */
+    private static final int MAX_STACK_DEPTH = 12;
+
+    private static final boolean ENABLED = BuildConfig.DEBUG;
+
+    private static final List<String> sRecords = new ArrayList<>();
+
+    /** 出力してから記録が追加されたかどうか */
+    private static boolean sDirty;
+
+    /** 停止を監視するスレッド。監視していない場合は{@code null} */
+    private static Thread sMonitorThread;
+
+    /** 処理中のメッセージの開始時刻（ナノ秒）。処理中でない場合は0 */
+    private static volatile long sDispatchStart;
+
+    /** 処理中のメッセージで停止を検出した時のスタックトレース */
+    private static volatile StackTraceElement[] sStallStack;
+
+    private MainThreadWatchdog() {
+    }
+
+    /**
+     * 呼び出しの開始時刻を取得する
+     *
+     * @return 開始時刻（ナノ秒）。{@link #end(String, long)}に渡す。UIスレッドでない場合は0
+     */
+    public static long begin() {
+        if (!ENABLED || Looper.myLooper() != Looper.getMainLooper()) {
+            return 0;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * 呼び出しの処理時間を確認し、長い場合はスタックトレースと一緒に記録する
+     *
+     * @param call 呼び出しの名前
+     * @param startNanos {@link #begin()}で取得した開始時刻
+     */
+    public static void end(String call, long startNanos) {
+        if (startNanos == 0) {
+            return;
+        }
+        final long nanos = System.nanoTime() - startNanos;
+        if (nanos >= CALL_THRESHOLD_MILLIS * 1000000L) {
+            // このメソッド自身のフレームは除く
+            final StackTraceElement[] stack = Thread.currentThread().getStackTrace();
+            record(call, nanos, stack, 3);
+        }
+    }
+
+    /**
+     * メインルーパーの停止の監視を始める（UIスレッド）。<br>
+     * 呼び出した時点で処理中のメッセージ（起動中のアクティビティなど）も対象にする。
+     */
+    public static void startLooperMonitor() {
+        if (!ENABLED || sMonitorThread != null) {
+            return;
+        }
+        sStallStack = null;
+        sDispatchStart = System.nanoTime();
+        Looper.getMainLooper().setMessageLogging(new Printer() {
+            @Override
+            public void println(String x) {
+                // ">>>>> Dispatching to ..."と"<<<<< Finished to ..."の組で呼ばれる
+                if (x.startsWith(">")) {
+                    sStallStack = null;
+                    sDispatchStart = System.nanoTime();
+                } else if (x.startsWith("<")) {
+                    final long start = sDispatchStart;
+                    sDispatchStart = 0;
+                    if (start != 0 && System.nanoTime() - start >= STALL_THRESHOLD_MILLIS * 1000000L) {
+                        final StackTraceElement[] stack = sStallStack;
+                        record(LOOPER_STALL, System.nanoTime() - start,
+                                stack != null ? stack : new StackTraceElement[0], 0);
+                    }
+                }
+            }
+        });
+
+        final Thread mainThread = Looper.getMainLooper().getThread();
+        sMonitorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        Thread.sleep(STALL_THRESHOLD_MILLIS / 2);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    // 停止しているメッセージごとに1回だけ、処理中のスタックトレースを取得する
+                    final long start = sDispatchStart;
+                    if (start != 0 && sStallStack == null
+                            && System.nanoTime() - start >= STALL_THRESHOLD_MILLIS * 1000000L) {
+                        sStallStack = mainThread.getStackTrace();
+                    }
+                }
+            }
+        }, TAG);
+        sMonitorThread.setDaemon(true);
+        sMonitorThread.start();
+    }
+
+    /**
+     * メインルーパーの停止の監視を終える（UIスレッド）
+     */
+    public static void stopLooperMonitor() {
+        if (sMonitorThread == null) {
+            return;
+        }
+        Looper.getMainLooper().setMessageLogging(null);
+        sMonitorThread.interrupt();
+        sMonitorThread = null;
+        sDispatchStart = 0;
+    }
+
+    /**
+     * 記録した内容を文字列にする
+     *
+     * @return 記録した内容
+     */
+    public static String dump() {
+        final StringBuilder sb = new StringBuilder();
+        synchronized (sRecords) {
+            for (String record : sRecords) {
+                sb.append(record);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 前回の出力から記録が追加された場合は、バックグラウンドでファイルに出力する。<br>
+     * {@code adb pull}で取り出せるように、可能な場合は外部ストレージのアプリ用ディレクトリに出力する。
+     *
+     * @param context コンテキスト
+     */
+    public static void flush(Context context) {
+        synchronized (sRecords) {
+            if (!sDirty) {
+                return;
+            }
+            sDirty = false;
+        }
+
+        final Context appContext = context.getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write(appContext);
+            }
+        }, TAG).start();
+    }
+
+    private static void write(Context context) {
+        File dir = context.getExternalFilesDir(null);
+        if (dir == null) {
+            dir = context.getFilesDir();
+        }
+
+        final File file = new File(dir, FILE_NAME);
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            writer.write(dump());
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write watchdog report.", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // 何もしない
+                }
+            }
+        }
+    }
+
+    private static void record(String name, long nanos, StackTraceElement[] stack, int skip) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%s %.1fms\n", name, nanos / 1e6));
+        for (int i = skip, end = Math.min(stack.length, skip + MAX_STACK_DEPTH); i < end; i++) {
+            sb.append("  at ").append(stack[i]).append('\n');
+        }
+        final String record = sb.toString();
+        Log.w(TAG, record);
+
+        synchronized (sRecords) {
+            if (sRecords.size() == MAX_RECORDS) {
+                sRecords.remove(0);
+            }
+            sRecords.add(record);
+            sDirty = true;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package com.droibit.accountmushroom.widget;
+
+import android.content.Context;
+import android.util.SparseIntArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseExpandableListAdapter;
+import android.widget.TextView;
+
+import com.droibit.accountmushroom.R;
+import com.droibit.accountmushroom.model.AccountFilter;
+import com.droibit.accountmushroom.model.GroupedList;
+import com.droibit.accountmushroom.model.GroupedListDiff;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link GroupedList}をそのまま表示するための{@link android.widget.ExpandableListAdapter}。<br>
+ * 行ごとに{@link java.util.Map}を作らず、配列から直接タイトルを読み込む。<br>
+ * 子アイテムが多いグループは{@link #PAGE_SIZE}件ずつ表示し、末尾に「さらに表示」の行を追加する。<br>
+ * 検索文字列が設定された場合は{@link AccountFilter}で絞り込んだ結果を表示する。<br>
+ * よく使うアカウントが設定された場合は、絞り込んでいない間だけ先頭にグループとして表示する。<br>
+ * グループのヘッダには{@link AuthenticatorIconLoader}で認証システムのアイコンを表示する。<br>
+ * アカウント情報が更新された場合は{@link #swapGroupedList(GroupedList, GroupedListDiff)}で差し替え、
+ * 表示中のページ数などの状態を引き継ぐ。<br>
+ * グループと子アイテムのIDはタイトルごとに採番して保持し続けるので、差し替えても展開しているグループは
+ * {@link android.widget.ExpandableListView}が引き継ぐ。<br>
+ * 削除されたアカウント（{@link GroupedList#isAvailable(int)}が{@code false}）は無効な状態で表示し、選択できないようにする。<br>
+ * {@link #highlightSingleNameMatch()}で強調したアカウントは、検索文字列かアカウント情報が変わるまで選択中の状態で表示する。
+ *
+ * @author kumagai
+ */
+public class AccountListAdapter extends BaseExpandableListAdapter {
+
+    /** 一度に表示する子アイテムの数 */
+    public static final int PAGE_SIZE = 50;
+
+    private static final int CHILD_TYPE_ACCOUNT = 0;
+
+    private static final int CHILD_TYPE_MORE = 1;
+
+    /**
+     * よく使うアカウントのグループのID。<br>
+     * {@link android.widget.ExpandableListView}はグループのIDの下位31ビットだけを使うので、採番したIDと重ならないようにその範囲の最大値にする
+     */
+    private static final long RECENT_GROUP_ID = 0x7fffffffL;
+
+    /** 「さらに表示」の行のID（子アイテムのIDは下位32ビットだけが使われる） */
+    private static final long MORE_ROW_ID = 0xffffffffL;
+
+    private final Context mContext;
+
+    private final LayoutInflater mInflater;
+
+    private final AuthenticatorIconLoader mIconLoader;
+
+    private GroupedList mGroupedList;
+
+    private AccountFilter mFilter;
+
+    /** 検索文字列 */
+    private CharSequence mQuery;
+
+    /** グループの位置と表示している子アイテムの数の対応表 */
+    private final SparseIntArray mVisibleCounts;
+
+    /** よく使うアカウント */
+    private String[] mRecentNames;
+
+    /** グループのタイトルと採番したID（差し替えても同じIDにするため破棄しない） */
+    private final Map<String, Long> mGroupIds;
+
+    /** アカウント名と採番したID（グループ内ではアカウント名が重複しないので、全グループで共有する） */
+    private final Map<String, Long> mChildIds;
+
+    /** 強調して表示する子アイテムの位置（全グループを通した位置）。強調しない場合は-1 */
+    private int mHighlightedPosition = -1;
+
+    /**
+     * 新しいインスタンスを作成する
+     *
+     * @param context コンテキスト
+     * @param groupedList 表示するアカウント情報
+     */
+    public AccountListAdapter(Context context, GroupedList groupedList) {
+        mContext = context;
+        mInflater = LayoutInflater.from(context);
+        mIconLoader = AuthenticatorIconLoader.getInstance(context);
+        mGroupedList = groupedList;
+        mFilter = new AccountFilter(groupedList, true);
+        mVisibleCounts = new SparseIntArray();
+        mRecentNames = new String[0];
+        mGroupIds = new HashMap<>();
+        mChildIds = new HashMap<>();
+    }
+
+    /**
+     * 先頭に表示するよく使うアカウントを設定する
+     *
+     * @param names アカウント名の配列
+     */
+    public void setRecentNames(String[] names) {
+        mRecentNames = names;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * よく使うアカウントのグループかどうか
+     *
+     * @param groupPosition グループの位置
+     * @return よく使うアカウントのグループの場合は{@code true}
+     */
+    public boolean isRecentGroup(int groupPosition) {
+        return groupPosition == 0 && hasRecentGroup();
+    }
+
+    /**
+     * 表示しているアカウント情報を取得する
+     *
+     * @return アカウント情報
+     */
+    public GroupedList getGroupedList() {
+        return mGroupedList;
+    }
+
+    /**
+     * 表示するアカウント情報を差し替える。<br>
+     * 残ったグループの表示件数と検索文字列はそのまま引き継ぐ。
+     *
+     * @param groupedList 新しいアカウント情報
+     * @param diff 現在のアカウント情報との差分
+     */
+    public void swapGroupedList(GroupedList groupedList, GroupedListDiff diff) {
+        final SparseIntArray visibleCounts = mVisibleCounts.clone();
+        mVisibleCounts.clear();
+        for (int i = 0, size = visibleCounts.size(); i < size; i++) {
+            final int newGroup = diff.getNewGroupPosition(visibleCounts.keyAt(i));
+            if (newGroup != GroupedListDiff.NO_POSITION) {
+                mVisibleCounts.put(newGroup, visibleCounts.valueAt(i));
+            }
+        }
+
+        mGroupedList = groupedList;
+        mFilter = new AccountFilter(groupedList, true);
+        mFilter.setQuery(mQuery);
+        mHighlightedPosition = -1;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * 検索文字列でアカウントを絞り込む
+     *
+     * @param query 検索文字列。空の場合は全て表示する
+     */
+    public void setQuery(CharSequence query) {
+        mQuery = query;
+        mFilter.setQuery(query);
+        mHighlightedPosition = -1;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * 検索文字列に一致するアカウント名が1つだけの場合は、そのアカウントを強調して表示する
+     *
+     * @return 強調した場合は{@code true}
+     */
+    public boolean highlightSingleNameMatch() {
+        mHighlightedPosition = -1;
+        if (mFilter.getNameMatchCount() == 1 && mGroupedList.isAvailable(mFilter.getNameMatchPosition())) {
+            mHighlightedPosition = mFilter.getNameMatchPosition();
+        }
+        notifyDataSetChanged();
+        return mHighlightedPosition >= 0;
+    }
+
+    /**
+     * 絞り込み中かどうか
+     *
+     * @return 絞り込み中の場合は{@code true}
+     */
+    public boolean isFiltering() {
+        return mFilter.isFiltering();
+    }
+
+    /**
+     * 「さらに表示」の行かどうか
+     *
+     * @param groupPosition グループの位置
+     * @param childPosition グループ内での子アイテムの位置
+     * @return 「さらに表示」の行の場合は{@code true}
+     */
+    public boolean isMoreRow(int groupPosition, int childPosition) {
+        if (isRecentGroup(groupPosition)) {
+            return false;
+        }
+        return childPosition == getVisibleCount(groupPosition);
+    }
+
+    /**
+     * グループの子アイテムを次のページまで表示する
+     *
+     * @param groupPosition グループの位置
+     */
+    public void showMore(int groupPosition) {
+        mVisibleCounts.put(getSourceGroupPosition(groupPosition), getVisibleCount(groupPosition) + PAGE_SIZE);
+        notifyDataSetChanged();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGroupCount() {
+        if (mFilter.isFiltering()) {
+            return mFilter.getGroupCount();
+        }
+        return mGroupedList.getGroupCount() + (hasRecentGroup() ? 1 : 0);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getChildrenCount(int groupPosition) {
+        if (isRecentGroup(groupPosition)) {
+            return mRecentNames.length;
+        }
+        // 展開されたグループのみ呼ばれるので、ここで表示する範囲を決める
+        final int visibleCount = getVisibleCount(groupPosition);
+        if (visibleCount < getMatchedCount(groupPosition)) {
+            return visibleCount + 1;
+        }
+        return visibleCount;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getGroup(int groupPosition) {
+        if (isRecentGroup(groupPosition)) {
+            return mContext.getString(R.string.group_title_recent);
+        }
+        return mGroupedList.getGroup(getSourceGroupPosition(groupPosition));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getChild(int groupPosition, int childPosition) {
+        if (isRecentGroup(groupPosition)) {
+            return mRecentNames[childPosition];
+        }
+        if (isMoreRow(groupPosition, childPosition)) {
+            return null;
+        }
+        return mGroupedList.getChildAt(getFlatPosition(groupPosition, childPosition));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getGroupId(int groupPosition) {
+        if (isRecentGroup(groupPosition)) {
+            return RECENT_GROUP_ID;
+        }
+        // 絞り込みやアカウント情報の差し替えで変わらないように、グループのタイトルごとに採番する
+        return getId(mGroupIds, getGroup(groupPosition));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getChildId(int groupPosition, int childPosition) {
+        if (isMoreRow(groupPosition, childPosition)) {
+            return MORE_ROW_ID;
+        }
+        return getId(mChildIds, getChild(groupPosition, childPosition));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getChildTypeCount() {
+        return 2;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getChildType(int groupPosition, int childPosition) {
+        return isMoreRow(groupPosition, childPosition) ? CHILD_TYPE_MORE : CHILD_TYPE_ACCOUNT;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public View getGroupView(int groupPosition, boolean isExpanded, View convertView, ViewGroup parent) {
+        TextView view = (TextView) convertView;
+        if (view == null) {
+            view = (TextView) mInflater.inflate(android.R.layout.simple_expandable_list_item_1, parent, false);
+            view.setCompoundDrawablePadding(
+                    mContext.getResources().getDimensionPixelSize(R.dimen.group_icon_padding));
+        }
+        view.setText(mContext.getString(R.string.group_title_format, getGroup(groupPosition),
+                getMatchedCount(groupPosition)));
+        mIconLoader.bind(view, isRecentGroup(groupPosition) ? null
+                : mGroupedList.getGroupType(getSourceGroupPosition(groupPosition)));
+        return view;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public View getChildView(int groupPosition, int childPosition, boolean isLastChild, View convertView,
+                             ViewGroup parent) {
+        final TextView view = (TextView) (convertView != null ? convertView
+                : mInflater.inflate(R.layout.simple_expandable_list_item, parent, false));
+        if (isMoreRow(groupPosition, childPosition)) {
+            final int restCount = getMatchedCount(groupPosition) - childPosition;
+            view.setText(mContext.getString(R.string.show_more_accounts, Math.min(restCount, PAGE_SIZE)));
+            view.setActivated(false);
+        } else {
+            view.setText(getChild(groupPosition, childPosition));
+            view.setActivated(!isRecentGroup(groupPosition)
+                    && getFlatPosition(groupPosition, childPosition) == mHighlightedPosition);
+        }
+        view.setEnabled(isChildSelectable(groupPosition, childPosition));
+        return view;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isChildSelectable(int groupPosition, int childPosition) {
+        if (isRecentGroup(groupPosition) || isMoreRow(groupPosition, childPosition)) {
+            return true;
+        }
+        return mGroupedList.isAvailable(getFlatPosition(groupPosition, childPosition));
+    }
+
+    /**
+     * 採番済みのIDを取得する。初めてのキーの場合は次の番号を割り当てる
+     */
+    private static long getId(Map<String, Long> ids, String key) {
+        Long id = ids.get(key);
+        if (id == null) {
+            id = (long) ids.size();
+            ids.put(key, id);
+        }
+        return id;
+    }
+
+    private boolean hasRecentGroup() {
+        return mRecentNames.length > 0 && !mFilter.isFiltering();
+    }
+
+    private int getSourceGroupPosition(int groupPosition) {
+        if (mFilter.isFiltering()) {
+            return mFilter.getGroupPosition(groupPosition);
+        }
+        return hasRecentGroup() ? groupPosition - 1 : groupPosition;
+    }
+
+    private int getMatchedCount(int groupPosition) {
+        if (isRecentGroup(groupPosition)) {
+            return mRecentNames.length;
+        }
+        if (mFilter.isFiltering()) {
+            return mFilter.getChildrenCount(groupPosition);
+        }
+        return mGroupedList.getChildrenCount(getSourceGroupPosition(groupPosition));
+    }
+
+    private int getFlatPosition(int groupPosition, int childPosition) {
+        if (mFilter.isFiltering()) {
+            return mFilter.getFlatPosition(groupPosition, childPosition);
+        }
+        return mGroupedList.getFlatPosition(getSourceGroupPosition(groupPosition), childPosition);
+    }
+
+    private int getVisibleCount(int groupPosition) {
+        final int pageCount = mVisibleCounts.get(getSourceGroupPosition(groupPosition), PAGE_SIZE);
+        return Math.min(getMatchedCount(groupPosition), pageCount);
+    }
+}
@@ -0,0 +1,238 @@
+package com.droibit.accountmushroom.widget;
+
+import android.accounts.AuthenticatorDescription;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.TextView;
+
+import com.droibit.accountmushroom.R;
+import com.droibit.accountmushroom.model.AuthenticatorRegistry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 認証システムのアイコンをグループのヘッダに表示するクラス。<br>
+ * アイコンはバックグラウンドで認証システムのパッケージから読み込んで表示サイズに縮小し、
+ * プロセス内で共有するサイズ上限付きのLRUキャッシュに保持する。UIスレッドではキャッシュのみ参照する。<br>
+ * 認証システムのパッケージが変更された場合は、そのパッケージのアイコンを破棄して読み込み直す。
+ *
+ * @author kumagai
+ */
+public final class AuthenticatorIconLoader implements AuthenticatorRegistry.OnPackageChangeListener {
+
+    private static final String TAG = AuthenticatorIconLoader.class.getSimpleName();
+
+    /** キャッシュの最大サイズ（バイト） */
+    private static final int MAX_CACHE_BYTES = 4 * 1024 * 1024;
+
+    private static AuthenticatorIconLoader sInstance;
+
+    private final Context mContext;
+
+    private final AuthenticatorRegistry mRegistry;
+
+    /** アカウントタイプとアイコンのキャッシュ */
+    private final LruCache<String, Bitmap> mCache;
+
+    /** アイコンが存在しないアカウントタイプ */
+    private final Set<String> mMissingTypes;
+
+    /** キャッシュしたアイコンのアカウントタイプと、読み込んだパッケージ名 */
+    private final Map<String, String> mIconPackages;
+
+    /** 読み込み中のアカウントタイプと表示先のビュー（UIスレッドのみ） */
+    private final Map<String, List<TextView>> mPendingViews;
+
+    private final ExecutorService mExecutor;
+
+    private final Handler mHandler;
+
+    /** アイコンの表示サイズ（ピクセル） */
+    private final int mIconSize;
+
+    /** 読み込み中に表示する透明なアイコン。読み込み後に文字の位置がずれないようにする */
+    private final Drawable mPlaceholder;
+
+    /**
+     * インスタンスを取得する
+     *
+     * @param context コンテキスト
+     * @return プロセスで共有するインスタンス
+     */
+    public static synchronized AuthenticatorIconLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AuthenticatorIconLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private AuthenticatorIconLoader(Context context) {
+        mContext = context;
+        mRegistry = AuthenticatorRegistry.getInstance(context);
+        final int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 32, MAX_CACHE_BYTES);
+        mCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+        };
+        mMissingTypes = Collections.synchronizedSet(new HashSet<String>());
+        mIconPackages = Collections.synchronizedMap(new HashMap<String, String>());
+        mPendingViews = new HashMap<>();
+        mExecutor = Executors.newSingleThreadExecutor();
+        mHandler = new Handler(Looper.getMainLooper());
+        mIconSize = context.getResources().getDimensionPixelSize(R.dimen.group_icon_size);
+        mPlaceholder = new ColorDrawable(Color.TRANSPARENT);
+        mPlaceholder.setBounds(0, 0, mIconSize, mIconSize);
+        mRegistry.addOnPackageChangeListener(this);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onPackageChanged(String packageName) {
+        // 追加・更新されたパッケージがどのアカウントタイプのアイコンを持つかはわからないので、
+        // アイコンが存在しなかったアカウントタイプも全て読み込み直す
+        mMissingTypes.clear();
+        synchronized (mIconPackages) {
+            final Iterator<Map.Entry<String, String>> iterator = mIconPackages.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<String, String> entry = iterator.next();
+                if (packageName.equals(entry.getValue())) {
+                    mCache.remove(entry.getKey());
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * アカウントタイプのアイコンをビューの左に表示する（UIスレッド）。<br>
+     * キャッシュにない場合は読み込み中の間だけ空白を表示し、読み込み後にビューが同じアカウントタイプのままであれば表示する。
+     *
+     * @param view 表示先のビュー
+     * @param accountType アカウントタイプ。{@code null}の場合はアイコンを表示しない
+     */
+    public void bind(TextView view, String accountType) {
+        view.setTag(accountType);
+        if (accountType == null || mMissingTypes.contains(accountType)) {
+            setIcon(view, null);
+            return;
+        }
+
+        final Bitmap bitmap = mCache.get(accountType);
+        if (bitmap != null) {
+            setIcon(view, bitmap);
+            return;
+        }
+        view.setCompoundDrawables(mPlaceholder, null, null, null);
+        load(view, accountType);
+    }
+
+    private void load(TextView view, final String accountType) {
+        List<TextView> views = mPendingViews.get(accountType);
+        if (views != null) {
+            if (!views.contains(view)) {
+                views.add(view);
+            }
+            return;
+        }
+        views = new ArrayList<>();
+        views.add(view);
+        mPendingViews.put(accountType, views);
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = decode(accountType);
+                if (bitmap != null) {
+                    mCache.put(accountType, bitmap);
+                } else {
+                    mMissingTypes.add(accountType);
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(accountType, bitmap);
+                    }
+                });
+            }
+        });
+    }
+
+    private void deliver(String accountType, Bitmap bitmap) {
+        final List<TextView> views = mPendingViews.remove(accountType);
+        if (views == null) {
+            return;
+        }
+        for (TextView view : views) {
+            // 再利用されて別のグループを表示している場合
+            if (accountType.equals(view.getTag())) {
+                setIcon(view, bitmap);
+            }
+        }
+    }
+
+    private void setIcon(TextView view, Bitmap bitmap) {
+        if (bitmap == null) {
+            view.setCompoundDrawables(null, null, null, null);
+            return;
+        }
+        final Drawable drawable = new BitmapDrawable(view.getResources(), bitmap);
+        drawable.setBounds(0, 0, mIconSize, mIconSize);
+        view.setCompoundDrawables(drawable, null, null, null);
+    }
+
+    /**
+     * 認証システムのパッケージからアイコンを読み込み、表示サイズのビットマップにする（バックグラウンドスレッド）
+     */
+    @SuppressWarnings("deprecation")
+    private Bitmap decode(String accountType) {
+        final AuthenticatorDescription desc = mRegistry.getDescription(accountType);
+        if (desc == null) {
+            return null;
+        }
+        final int iconId = desc.iconId != 0 ? desc.iconId : desc.smallIconId;
+        if (iconId == 0) {
+            return null;
+        }
+
+        try {
+            final Resources resources = mContext.createPackageContext(desc.packageName, 0).getResources();
+            final Drawable drawable = resources.getDrawable(iconId);
+            if (drawable == null) {
+                return null;
+            }
+            // 元の大きさのまま保持しないように、表示サイズで描画し直す
+            final Bitmap bitmap = Bitmap.createBitmap(mIconSize, mIconSize, Bitmap.Config.ARGB_8888);
+            drawable.setBounds(0, 0, mIconSize, mIconSize);
+            drawable.draw(new Canvas(bitmap));
+            mIconPackages.put(accountType, desc.packageName);
+            return bitmap;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(TAG, "No package for account type " + accountType);
+        } catch (Resources.NotFoundException e) {
+            Log.w(TAG, "No icon resource for account type " + accountType);
+        }
+        return null;
+    }
+}
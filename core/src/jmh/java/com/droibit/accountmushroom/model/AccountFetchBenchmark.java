@@ -0,0 +1,95 @@
+package com.droibit.accountmushroom.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code AccountFetcher#fetch()}相当の処理（グルーピング、並べ替え、リストの作成）のベンチマーク
+ *
+ * @author kumagai
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AccountFetchBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int accountCount;
+
+    @Param({"20"})
+    public int typeCount;
+
+    private SyntheticAccountSource mSource;
+
+    private AccountTypeTable mTypeTable;
+
+    private GroupedList mGroupedList;
+
+    @Setup
+    public void setUp() {
+        mSource = new SyntheticAccountSource.Builder()
+                .accountCount(accountCount)
+                .typeCount(typeCount)
+                .hiddenTypeRatio(0.1)
+                .build();
+        mTypeTable = new AccountTypeTable();
+        mTypeTable.setHiddenTypes(mSource.getHiddenTypes());
+        mGroupedList = new AccountListBuilder(mSource, mSource, mTypeTable).build();
+    }
+
+    /**
+     * 読み込みからリストの作成まで
+     */
+    @Benchmark
+    public GroupedList fetch() {
+        return new AccountListBuilder(mSource, mSource, mTypeTable).build();
+    }
+
+    /**
+     * グルーピングと並べ替えのみ
+     */
+    @Benchmark
+    public GroupedList groupAndSort() {
+        final AccountGrouper grouper = new AccountGrouper();
+        for (int i = 0, count = mGroupedList.getTotalChildrenCount(); i < count; i++) {
+            grouper.add(mGroupedList.getGroup(i % mGroupedList.getGroupCount()), mGroupedList.getChildAt(i));
+        }
+        return grouper.build();
+    }
+
+    /**
+     * 検索用インデックスの作成
+     */
+    @Benchmark
+    public AccountIndex buildIndex() {
+        return new AccountIndex(mGroupedList);
+    }
+
+    /**
+     * 1文字ずつ入力した場合の絞り込み
+     */
+    @Benchmark
+    public void filterAsYouType(Blackhole blackhole) {
+        final AccountFilter filter = new AccountFilter(mGroupedList, true);
+        final String query = "abc";
+        for (int i = 1; i <= query.length(); i++) {
+            filter.setQuery(query.substring(0, i));
+            blackhole.consume(filter.getGroupCount());
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.droibit.accountmushroom.model;
+
+import java.util.Arrays;
+
+/**
+ * {@link AccountIndex}を使ってアカウントを絞り込むクラス。<br>
+ * 前回の検索文字列に文字を追加した場合は、前回一致した範囲の中だけを検索する。
+ * 検索結果の配列は使い回すので、入力のたびに{@link GroupedList}を作成しない。<br>
+ * 部分一致も有効にした場合は、途中に検索文字列を含むアカウント名も一致として扱う
+ * （1文字では多くのアカウント名に含まれてしまうので、{@link #SUBSTRING_MIN_LENGTH}文字以上の場合だけ）。
+ * 先頭に一致したものを含むグループを前に並べ、グループ内でも先頭に一致したアカウントを前に並べる。
+ *
+ * @author kumagai
+ */
+public final class AccountFilter {
+
+    /** 部分一致を調べる検索文字列の最小の長さ */
+    private static final int SUBSTRING_MIN_LENGTH = 2;
+
+    private final GroupedList mGroupedList;
+
+    private final AccountIndex mIndex;
+
+    /** アカウント名の部分一致も対象にするかどうか */
+    private final boolean mMatchSubstring;
+
+    /** 現在の検索文字列（正規化済み） */
+    private String mQuery;
+
+    /** 検索文字列に一致するインデックスの範囲 */
+    private int mFrom;
+
+    private int mTo;
+
+    /** 検索文字列を含むアカウント名の位置（全グループを通した位置、昇順）。部分一致の場合のみ使う */
+    private final int[] mCandidates;
+
+    /** {@link #mCandidates}の有効な数。全てのアカウント名を調べ直す場合は負の値 */
+    private int mCandidateCount;
+
+    /** 一致した子アイテムの位置（全グループを通した位置、グループごとに表示順） */
+    private final int[] mMatches;
+
+    /** 一致した子アイテムの数 */
+    private int mMatchCount;
+
+    /** 並べる前の一致した子アイテムの位置（先頭に一致したもの、途中に一致したものの順） */
+    private final int[] mWork;
+
+    /** アカウント名が一致した子アイテムの数（グループ名だけが一致したものは含まない） */
+    private int mNameMatchCount;
+
+    /** アカウント名が一致した最初の子アイテムの位置（全グループを通した位置） */
+    private int mNameMatchPosition;
+
+    /** 子アイテムが一致したかどうか（重複の除外用） */
+    private final boolean[] mMatched;
+
+    /** 一致した子アイテムを含むグループの位置 */
+    private final int[] mGroups;
+
+    /** 一致した子アイテムを含むグループの数 */
+    private int mGroupCount;
+
+    /** 各グループの{@link #mMatches}での開始位置 */
+    private final int[] mGroupOffsets;
+
+    /**
+     * 前方一致だけで絞り込む新しいインスタンスを作成する
+     *
+     * @param groupedList 絞り込むアカウント情報
+     */
+    public AccountFilter(GroupedList groupedList) {
+        this(groupedList, false);
+    }
+
+    /**
+     * 新しいインスタンスを作成する
+     *
+     * @param groupedList 絞り込むアカウント情報
+     * @param matchSubstring アカウント名の部分一致も対象にする場合は{@code true}
+     */
+    public AccountFilter(GroupedList groupedList, boolean matchSubstring) {
+        mGroupedList = groupedList;
+        mIndex = groupedList.getIndex();
+        mMatchSubstring = matchSubstring;
+
+        final int groupCount = groupedList.getGroupCount();
+        final int childCount = groupedList.getTotalChildrenCount();
+        mCandidates = matchSubstring ? new int[childCount] : null;
+        mMatches = new int[childCount];
+        mWork = new int[childCount];
+        mMatched = new boolean[childCount];
+        mGroups = new int[groupCount];
+        mGroupOffsets = new int[groupCount + 1];
+        setQuery(null);
+    }
+
+    /**
+     * 検索文字列を設定して絞り込む
+     *
+     * @param query 検索文字列。空の場合は絞り込まない
+     */
+    public void setQuery(CharSequence query) {
+        final String normalized = query == null ? "" : AccountIndex.normalize(query.toString());
+        if (normalized.equals(mQuery)) {
+            return;
+        }
+
+        // 文字が追加された場合は前回の範囲内に限定して検索する
+        if (mQuery == null || !normalized.startsWith(mQuery)) {
+            mFrom = 0;
+            mTo = mIndex.size();
+            mCandidateCount = -1;
+        }
+        mQuery = normalized;
+
+        if (!isFiltering()) {
+            return;
+        }
+        final int from = mIndex.lowerBound(normalized, mFrom, mTo);
+        mTo = mIndex.upperBound(normalized, from, mTo);
+        mFrom = from;
+        collectMatches();
+    }
+
+    /**
+     * 絞り込み中かどうか
+     *
+     * @return 絞り込み中の場合は{@code true}
+     */
+    public boolean isFiltering() {
+        return !mQuery.isEmpty();
+    }
+
+    /**
+     * 一致した子アイテムの数を取得する
+     *
+     * @return 全グループを通した子アイテムの数。絞り込んでいない場合は0
+     */
+    public int getMatchCount() {
+        return isFiltering() ? mMatchCount : 0;
+    }
+
+    /**
+     * アカウント名が一致した子アイテムの数を取得する。<br>
+     * グループのラベル名だけが一致した子アイテムは数えないので、表示している子アイテムの数とは異なる場合がある。
+     *
+     * @return 子アイテムの数。絞り込んでいない場合は0
+     */
+    public int getNameMatchCount() {
+        return isFiltering() ? mNameMatchCount : 0;
+    }
+
+    /**
+     * アカウント名が一致した子アイテムの位置を取得する
+     *
+     * @return 全グループを通した子アイテムの位置。一致したものがない場合は-1
+     */
+    public int getNameMatchPosition() {
+        return getNameMatchCount() > 0 ? mNameMatchPosition : -1;
+    }
+
+    /**
+     * 一致したグループの数を取得する
+     *
+     * @return グループの数
+     */
+    public int getGroupCount() {
+        return mGroupCount;
+    }
+
+    /**
+     * 一致したグループの、元の{@link GroupedList}での位置を取得する
+     *
+     * @param position 絞り込み後のグループの位置
+     * @return 元のグループの位置
+     */
+    public int getGroupPosition(int position) {
+        return mGroups[position];
+    }
+
+    /**
+     * 一致した子アイテムの数を取得する
+     *
+     * @param position 絞り込み後のグループの位置
+     * @return 子アイテムの数
+     */
+    public int getChildrenCount(int position) {
+        return mGroupOffsets[position + 1] - mGroupOffsets[position];
+    }
+
+    /**
+     * 一致した子アイテムの、全グループを通した位置を取得する
+     *
+     * @param position 絞り込み後のグループの位置
+     * @param childPosition 絞り込み後のグループ内での子アイテムの位置
+     * @return 全グループを通した子アイテムの位置
+     */
+    public int getFlatPosition(int position, int childPosition) {
+        return mMatches[mGroupOffsets[position] + childPosition];
+    }
+
+    private void collectMatches() {
+        mNameMatchCount = 0;
+        int count = 0;
+        for (int i = mFrom; i < mTo; i++) {
+            final int target = mIndex.getTarget(i);
+            if (target >= 0) {
+                // インデックスにはアカウントごとに1つだけキーがあるので、重複して数えることはない
+                if (mNameMatchCount++ == 0) {
+                    mNameMatchPosition = target;
+                }
+                count = addMatch(target, count);
+                continue;
+            }
+            // グループ名が一致した場合は、グループ内の全アカウントを対象にする
+            final int groupPosition = -(target + 1);
+            final int first = mGroupedList.getFlatPosition(groupPosition, 0);
+            final int last = first + mGroupedList.getChildrenCount(groupPosition);
+            for (int flatPosition = first; flatPosition < last; flatPosition++) {
+                count = addMatch(flatPosition, count);
+            }
+        }
+        Arrays.sort(mWork, 0, count);
+        final int prefixCount = count;
+        if (mMatchSubstring && mQuery.length() >= SUBSTRING_MIN_LENGTH) {
+            count = collectSubstringMatches(count);
+        }
+        arrangeMatches(prefixCount, count);
+    }
+
+    /**
+     * 途中に検索文字列を含むアカウント名を、{@link #mWork}に位置の昇順で追加する。<br>
+     * 文字が追加された場合は、前回含んでいたアカウント名だけを調べる。
+     *
+     * @return 追加した後の{@link #mWork}の有効な数
+     */
+    private int collectSubstringMatches(int count) {
+        final boolean all = mCandidateCount < 0;
+        final int candidateCount = all ? mGroupedList.getTotalChildrenCount() : mCandidateCount;
+        final long bigrams = AccountIndex.getBigramMask(mQuery);
+        int kept = 0;
+        for (int i = 0; i < candidateCount; i++) {
+            final int flatPosition = all ? i : mCandidates[i];
+            if (!mIndex.mayContainInChild(flatPosition, bigrams)) {
+                continue;
+            }
+            final int index = mIndex.indexOfInChild(flatPosition, mQuery);
+            if (index < 0) {
+                continue;
+            }
+            mCandidates[kept++] = flatPosition;
+            // 先頭に一致したものはインデックスの範囲から追加している
+            if (index == 0) {
+                continue;
+            }
+            if (mNameMatchCount++ == 0) {
+                mNameMatchPosition = flatPosition;
+            }
+            count = addMatch(flatPosition, count);
+        }
+        mCandidateCount = kept;
+        return count;
+    }
+
+    /**
+     * 先頭に一致したものを含むグループ、途中に一致したものだけのグループの順に、グループごとに区切って並べる
+     *
+     * @param prefixCount {@link #mWork}の先頭に一致した子アイテムの数
+     * @param count {@link #mWork}の有効な数
+     */
+    private void arrangeMatches(int prefixCount, int count) {
+        mMatchCount = 0;
+        mGroupCount = 0;
+
+        int substring = prefixCount;
+        int groupPosition = 0;
+        for (int prefix = 0; prefix < prefixCount; ) {
+            groupPosition = findGroup(groupPosition, mWork[prefix]);
+            final int first = mGroupedList.getFlatPosition(groupPosition, 0);
+            final int end = mGroupedList.getFlatPosition(groupPosition + 1, 0);
+            startGroup(groupPosition);
+            while (prefix < prefixCount && mWork[prefix] < end) {
+                addToGroup(mWork[prefix++]);
+            }
+            // 同じグループで途中に一致したものは後ろに続け、他のグループのものは後で並べる
+            while (substring < count && mWork[substring] < first) {
+                substring++;
+            }
+            while (substring < count && mWork[substring] < end) {
+                addToGroup(mWork[substring]);
+                mWork[substring++] = -1;
+            }
+        }
+
+        groupPosition = 0;
+        int lastGroup = -1;
+        for (int i = prefixCount; i < count; i++) {
+            final int flatPosition = mWork[i];
+            if (flatPosition < 0) {
+                continue;
+            }
+            groupPosition = findGroup(groupPosition, flatPosition);
+            if (groupPosition != lastGroup) {
+                startGroup(groupPosition);
+                lastGroup = groupPosition;
+            }
+            addToGroup(flatPosition);
+        }
+        mGroupOffsets[mGroupCount] = mMatchCount;
+    }
+
+    private int addMatch(int flatPosition, int count) {
+        if (!mMatched[flatPosition]) {
+            mMatched[flatPosition] = true;
+            mWork[count++] = flatPosition;
+        }
+        return count;
+    }
+
+    private void startGroup(int groupPosition) {
+        mGroups[mGroupCount] = groupPosition;
+        mGroupOffsets[mGroupCount++] = mMatchCount;
+    }
+
+    private void addToGroup(int flatPosition) {
+        mMatched[flatPosition] = false;
+        mMatches[mMatchCount++] = flatPosition;
+    }
+
+    /**
+     * 子アイテムを含むグループの位置を、指定したグループから後ろに向かって求める
+     */
+    private int findGroup(int groupPosition, int flatPosition) {
+        while (flatPosition >= mGroupedList.getFlatPosition(groupPosition + 1, 0)) {
+            groupPosition++;
+        }
+        return groupPosition;
+    }
+}
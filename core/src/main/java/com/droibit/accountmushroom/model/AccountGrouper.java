@@ -0,0 +1,270 @@
+package com.droibit.accountmushroom.model;
+
+import com.droibit.accountmushroom.utils.LatencyTracer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * アカウントをラベル名ごとにまとめて{@link GroupedList}を作成するクラス。<br>
+ * グループはラベル名のハッシュで引くため、アカウント数に比例した時間でグルーピングできる。<br>
+ * グループとアカウントは現在のロケールの照合順序で並べる。キーは{@link SortKeyCache}で1回だけ作成し、
+ * 並べ替えではバイト列を比較する。
+ *
+ * @author kumagai
+ */
+public final class AccountGrouper {
+
+    /** グループの並び順を比較する */
+    private static final Comparator<Group> COMPARATOR = new Comparator<Group>() {
+        @Override
+        public int compare(Group lhs, Group rhs) {
+            final int result = SortKeyCache.compare(lhs.sortKey, rhs.sortKey);
+            return result != 0 ? result : lhs.label.compareTo(rhs.label);
+        }
+    };
+
+    /** 挿入ソートで並べ替える子アイテムの最大数 */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    /** ラベル名とグループの対応表 */
+    private final Map<String, Group> mGroups;
+
+    /** 追加された順のグループ */
+    private final List<Group> mGroupList;
+
+    /** 全グループの子アイテムの数 */
+    private int mChildCount;
+
+    /**
+     * 新しいインスタンスを作成する
+     */
+    public AccountGrouper() {
+        mGroups = new HashMap<>();
+        mGroupList = new ArrayList<>();
+    }
+
+    /**
+     * アカウントを追加する
+     *
+     * @param label アカウントタイプのラベル名
+     * @param name アカウント名
+     */
+    public void add(String label, String name) {
+        add(getGroup(label), name);
+    }
+
+    /**
+     * ラベル名のグループを取得する。<br>
+     * 存在しない場合は新しく作成する。
+     *
+     * @param label アカウントタイプのラベル名
+     * @return {@link #add(int, String)}に渡すグループの番号。{@link #build()}を呼び出すまで有効
+     */
+    public int getGroup(String label) {
+        return getGroup(label, null);
+    }
+
+    /**
+     * ラベル名のグループを取得する。<br>
+     * 存在しない場合はアカウントタイプを代表として新しく作成する。
+     *
+     * @param label アカウントタイプのラベル名
+     * @param type アカウントタイプ
+     * @return {@link #add(int, String)}に渡すグループの番号。{@link #build()}を呼び出すまで有効
+     */
+    public int getGroup(String label, String type) {
+        Group group = mGroups.get(label);
+        if (group == null) {
+            group = new Group(label, type, mGroupList.size());
+            mGroups.put(label, group);
+            mGroupList.add(group);
+        }
+        return group.number;
+    }
+
+    /**
+     * グループにアカウントを追加する
+     *
+     * @param group {@link #getGroup(String)}で取得したグループの番号
+     * @param name アカウント名
+     */
+    public void add(int group, String name) {
+        mGroupList.get(group).children.add(name);
+        mChildCount++;
+    }
+
+    /**
+     * ラベル名順に並べ、グループ内をアカウント名順に並べた{@link GroupedList}を作成する
+     *
+     * @return グループ化したアカウントのリスト
+     */
+    public GroupedList build() {
+        if (mGroupList.isEmpty()) {
+            return new GroupedList();
+        }
+        final SortKeyCache sortKeys = SortKeyCache.getInstance();
+
+        final long sortStart = LatencyTracer.begin();
+        for (int i = 0, size = mGroupList.size(); i < size; i++) {
+            final Group group = mGroupList.get(i);
+            group.sortKey = sortKeys.getKey(group.label);
+        }
+        Collections.sort(mGroupList, COMPARATOR);
+        LatencyTracer.end(LatencyTracer.SPAN_SORT, sortStart);
+
+        final long buildStart = LatencyTracer.begin();
+        final int groupCount = mGroupList.size();
+        final String[] groupTitles = new String[groupCount];
+        final String[] groupTypes = new String[groupCount];
+        final int[] groupOffsets = new int[groupCount + 1];
+        final String[] children = new String[mChildCount];
+
+        int offset = 0;
+        int maxChildCount = 0;
+        for (int i = 0; i < groupCount; i++) {
+            final Group group = mGroupList.get(i);
+            groupTitles[i] = group.label;
+            groupTypes[i] = group.type;
+            groupOffsets[i] = offset;
+            final int size = group.children.size();
+            for (int j = 0; j < size; j++) {
+                children[offset++] = group.children.get(j);
+            }
+            maxChildCount = Math.max(maxChildCount, size);
+        }
+        groupOffsets[groupCount] = offset;
+
+        // アカウント名のキーはまとめて取得し、グループごとにキーと一緒に並べ替える
+        final byte[][] keys = new byte[children.length][];
+        sortKeys.getKeys(children, 0, children.length, keys);
+        // ほとんどの比較は先頭の数バイトで決まるので、整数にして配列を辿らずに比較する
+        final long[] prefixes = new long[children.length];
+        for (int i = 0; i < children.length; i++) {
+            prefixes[i] = SortKeyCache.getPrefix(keys[i]);
+        }
+        final Children temp = new Children(Math.max(maxChildCount, 1));
+        final Children target = new Children(children, keys, prefixes);
+        for (int i = 0; i < groupCount; i++) {
+            sortChildren(target, groupOffsets[i], groupOffsets[i + 1], temp);
+        }
+
+        final GroupedList groupedList = new GroupedList(groupTitles, groupTypes, groupOffsets, children);
+        LatencyTracer.end(LatencyTracer.SPAN_BUILD_LIST, buildStart);
+        return groupedList;
+    }
+
+    /**
+     * 子アイテムの範囲をキーの順に並べ替える（安定なマージソート）
+     */
+    private static void sortChildren(Children children, int from, int to, Children temp) {
+        // 短い範囲は挿入ソートの方が速い
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                children.copyTo(i, temp, 0, 1);
+                int j = i;
+                while (j > from && children.compare(j - 1, temp, 0) > 0) {
+                    children.copyTo(j - 1, children, j, 1);
+                    j--;
+                }
+                temp.copyTo(0, children, j, 1);
+            }
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        sortChildren(children, from, middle, temp);
+        sortChildren(children, middle, to, temp);
+        if (children.compare(middle - 1, children, middle) <= 0) {
+            return;
+        }
+
+        // 前半を作業用の配列に退避してから併合する
+        final int leftCount = middle - from;
+        children.copyTo(from, temp, 0, leftCount);
+        int left = 0;
+        int right = middle;
+        int out = from;
+        while (left < leftCount && right < to) {
+            if (temp.compare(left, children, right) <= 0) {
+                temp.copyTo(left++, children, out++, 1);
+            } else {
+                children.copyTo(right++, children, out++, 1);
+            }
+        }
+        temp.copyTo(left, children, out, leftCount - left);
+    }
+
+    /**
+     * 並べ替え中の子アイテムとキー
+     */
+    private static final class Children {
+
+        final String[] names;
+
+        final byte[][] keys;
+
+        /** キーの先頭8バイト */
+        final long[] prefixes;
+
+        Children(int capacity) {
+            this(new String[capacity], new byte[capacity][], new long[capacity]);
+        }
+
+        Children(String[] names, byte[][] keys, long[] prefixes) {
+            this.names = names;
+            this.keys = keys;
+            this.prefixes = prefixes;
+        }
+
+        int compare(int index, Children other, int otherIndex) {
+            int result = compareUnsigned(prefixes[index], other.prefixes[otherIndex]);
+            if (result == 0) {
+                result = SortKeyCache.compare(keys[index], other.keys[otherIndex]);
+            }
+            return result != 0 ? result : names[index].compareTo(other.names[otherIndex]);
+        }
+
+        void copyTo(int from, Children dest, int destFrom, int length) {
+            if (length == 1) {
+                dest.names[destFrom] = names[from];
+                dest.keys[destFrom] = keys[from];
+                dest.prefixes[destFrom] = prefixes[from];
+                return;
+            }
+            System.arraycopy(names, from, dest.names, destFrom, length);
+            System.arraycopy(keys, from, dest.keys, destFrom, length);
+            System.arraycopy(prefixes, from, dest.prefixes, destFrom, length);
+        }
+
+        private static int compareUnsigned(long lhs, long rhs) {
+            return Long.compare(lhs + Long.MIN_VALUE, rhs + Long.MIN_VALUE);
+        }
+    }
+
+    private static final class Group {
+
+        final String label;
+
+        /** 代表するアカウントタイプ */
+        final String type;
+
+        /** 追加された順の番号 */
+        final int number;
+
+        /** ラベル名の照合順序のキー（{@link #build()}で設定する） */
+        byte[] sortKey;
+
+        final List<String> children;
+
+        Group(String label, String type, int number) {
+            this.label = label;
+            this.type = type;
+            this.number = number;
+            this.children = new ArrayList<>();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.droibit.accountmushroom.model;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * アカウント名とグループのラベル名を前方一致で検索するためのインデックス。<br>
+ * 小文字にしたキーをソートした配列で保持し、二分探索で一致する範囲を求める。
+ *
+ * @author kumagai
+ */
+public final class AccountIndex {
+
+    /** 検索対象のキー（小文字、昇順） */
+    private final String[] mKeys;
+
+    /**
+     * キーに対応する検索結果。<br>
+     * 0以上の場合は全グループを通した子アイテムの位置、負の場合は{@code -(グループの位置 + 1)}
+     */
+    private final int[] mTargets;
+
+    /** 大文字・小文字を区別して比較するための元のアカウント情報 */
+    private final GroupedList mGroupedList;
+
+    /** 並べ替える前のキー（グループ、子アイテムの順） */
+    private final String[] mSourceKeys;
+
+    /** グループの数（{@link #mSourceKeys}での子アイテムの開始位置） */
+    private final int mGroupCount;
+
+    /** アカウント名のキーに含まれる2文字の組み合わせ（{@link #getBigramMask(String)}、全グループを通した位置の順） */
+    private final long[] mChildBigrams;
+
+    /**
+     * 新しいインスタンスを作成する
+     *
+     * @param groupedList 検索するアカウント情報
+     */
+    public AccountIndex(GroupedList groupedList) {
+        mGroupedList = groupedList;
+        final int groupCount = groupedList.getGroupCount();
+        final int size = groupCount + groupedList.getTotalChildrenCount();
+        final String[] keys = new String[size];
+        final Integer[] order = new Integer[size];
+        mSourceKeys = keys;
+        mGroupCount = groupCount;
+
+        int i = 0;
+        for (int groupPosition = 0; groupPosition < groupCount; groupPosition++) {
+            keys[i] = normalize(groupedList.getGroup(groupPosition));
+            order[i] = i++;
+        }
+        mChildBigrams = new long[groupedList.getTotalChildrenCount()];
+        for (int flatPosition = 0, count = groupedList.getTotalChildrenCount(); flatPosition < count; flatPosition++) {
+            keys[i] = normalize(groupedList.getChildAt(flatPosition));
+            mChildBigrams[flatPosition] = getBigramMask(keys[i]);
+            order[i] = i++;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return keys[lhs].compareTo(keys[rhs]);
+            }
+        });
+
+        mKeys = new String[size];
+        mTargets = new int[size];
+        for (i = 0; i < size; i++) {
+            final int source = order[i];
+            mKeys[i] = keys[source];
+            mTargets[i] = source < groupCount ? -(source + 1) : source - groupCount;
+        }
+    }
+
+    /**
+     * 検索用にキーを正規化する
+     *
+     * @param text 文字列
+     * @return 正規化した文字列
+     */
+    public static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 文字列に含まれる2文字の組み合わせを、64ビットのマスクにまとめる。<br>
+     * 検索文字列のマスクのビットが全て含まれない場合は、その文字列を含まない。
+     *
+     * @param text 正規化した文字列
+     * @return 組み合わせごとのハッシュに対応するビットを立てたマスク
+     */
+    public static long getBigramMask(String text) {
+        long mask = 0;
+        for (int i = 1, length = text.length(); i < length; i++) {
+            mask |= 1L << ((text.charAt(i - 1) * 31 + text.charAt(i)) & 63);
+        }
+        return mask;
+    }
+
+    /**
+     * キーの数を取得する
+     *
+     * @return キーの数
+     */
+    public int size() {
+        return mKeys.length;
+    }
+
+    /**
+     * 指定した範囲から、前方一致するキーの開始位置を求める
+     *
+     * @param prefix 正規化した検索文字列
+     * @param from 検索範囲の開始位置
+     * @param to 検索範囲の終了位置（含まない）
+     * @return 前方一致するキーの開始位置
+     */
+    public int lowerBound(String prefix, int from, int to) {
+        while (from < to) {
+            final int mid = (from + to) >>> 1;
+            if (comparePrefix(mKeys[mid], prefix) < 0) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * 指定した範囲から、前方一致するキーの終了位置を求める
+     *
+     * @param prefix 正規化した検索文字列
+     * @param from 検索範囲の開始位置
+     * @param to 検索範囲の終了位置（含まない）
+     * @return 前方一致するキーの終了位置（含まない）
+     */
+    public int upperBound(String prefix, int from, int to) {
+        while (from < to) {
+            final int mid = (from + to) >>> 1;
+            if (comparePrefix(mKeys[mid], prefix) <= 0) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * 指定した名前のアカウントが含まれるかどうか
+     *
+     * @param name アカウント名
+     * @return 含まれる場合は{@code true}
+     */
+    public boolean containsChild(String name) {
+        final String key = normalize(name);
+        for (int i = lowerBound(key, 0, mKeys.length); i < mKeys.length && mKeys[i].equals(key); i++) {
+            if (mTargets[i] >= 0 && mGroupedList.getChildAt(mTargets[i]).equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * キーに対応する検索結果を取得する
+     *
+     * @param position キーの位置
+     * @return 0以上の場合は全グループを通した子アイテムの位置、負の場合は{@code -(グループの位置 + 1)}
+     */
+    public int getTarget(int position) {
+        return mTargets[position];
+    }
+
+    /**
+     * アカウント名のキーで、検索文字列が現れる位置を求める
+     *
+     * @param flatPosition 全グループを通した子アイテムの位置
+     * @param query 正規化した検索文字列
+     * @return 最初に現れる位置。含まない場合は-1
+     */
+    public int indexOfInChild(int flatPosition, String query) {
+        return mSourceKeys[mGroupCount + flatPosition].indexOf(query);
+    }
+
+    /**
+     * アカウント名のキーが検索文字列を含む可能性があるかどうか。<br>
+     * 文字列を読まずに判定できるので、{@link #indexOfInChild(int, String)}の前に多くのアカウント名を除ける。
+     *
+     * @param flatPosition 全グループを通した子アイテムの位置
+     * @param queryBigrams 検索文字列の{@link #getBigramMask(String)}
+     * @return 含む可能性がある場合は{@code true}
+     */
+    public boolean mayContainInChild(int flatPosition, long queryBigrams) {
+        return (mChildBigrams[flatPosition] & queryBigrams) == queryBigrams;
+    }
+
+    /**
+     * キーの先頭と検索文字列を比較する
+     *
+     * @return キーが検索文字列で始まる場合は0
+     */
+    private static int comparePrefix(String key, String prefix) {
+        final int length = Math.min(key.length(), prefix.length());
+        for (int i = 0; i < length; i++) {
+            final int diff = key.charAt(i) - prefix.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return key.length() < prefix.length() ? -1 : 0;
+    }
+}
@@ -0,0 +1,221 @@
+package com.droibit.accountmushroom.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link AccountSource}から読み込んだアカウントをラベル名ごとにまとめ、{@link GroupedList}を作成するクラス。<br>
+ * 非表示にするアカウントタイプと、ラベル名を取得できないアカウントは除外する。<br>
+ * アカウントタイプは{@link AccountTypeTable}のIDで扱い、ラベル名の取得とグループの検索はタイプごとに1回だけ行う。<br>
+ * 同じ走査で非表示のものも含めた{@link AccountTypeCatalog}を作成し、{@link GroupedList#getCatalog()}で参照できるようにする。
+ *
+ * @author kumagai
+ */
+public final class AccountListBuilder {
+
+    /** グループをまだ調べていない */
+    private static final int GROUP_UNRESOLVED = 0;
+
+    /** 表示しないアカウントタイプ */
+    private static final int GROUP_SKIPPED = -1;
+
+    private final AccountSource mSource;
+
+    private final LabelResolver mLabelResolver;
+
+    private final AccountTypeTable mTypeTable;
+
+    /** 作成が中断されたかどうか */
+    private volatile boolean mCanceled;
+
+    /**
+     * 新しいインスタンスを作成する
+     *
+     * @param source アカウントの読み込み元
+     * @param labelResolver ラベル名の取得元
+     * @param typeTable アカウントタイプのIDと非表示にするアカウントタイプ
+     */
+    public AccountListBuilder(AccountSource source, LabelResolver labelResolver, AccountTypeTable typeTable) {
+        mSource = source;
+        mLabelResolver = labelResolver;
+        mTypeTable = typeTable;
+    }
+
+    /**
+     * グループ化したアカウントのリストを作成する。<br>
+     * {@link #cancel()}で中断された場合は{@code null}を返す。
+     *
+     * @return グループ化したアカウントのリスト
+     */
+    public GroupedList build() {
+        mCanceled = false;
+
+        // 扱いやすいように[親:1 - 子:多]のリストに変換する
+        final GroupingVisitor visitor = new GroupingVisitor(mTypeTable.getHiddenIds(), mTypeTable.size());
+        mSource.forEachAccount(visitor);
+
+        if (mCanceled) {
+            return null;
+        }
+        final GroupedList groupedList = visitor.grouper.build();
+        groupedList.setCatalog(visitor.buildCatalog());
+        return groupedList;
+    }
+
+    /**
+     * 別スレッドで実行中の{@link #build()}を中断する
+     */
+    public void cancel() {
+        mCanceled = true;
+    }
+
+    /**
+     * アカウントタイプのIDでグループを引きながらアカウントを追加する
+     */
+    private final class GroupingVisitor implements AccountSource.Visitor {
+
+        final AccountGrouper grouper;
+
+        final BitSet hiddenIds;
+
+        /** アカウントタイプのIDとグループの番号+1の対応表 */
+        int[] typeGroups;
+
+        /** アカウントタイプのIDとアカウント数の対応表 */
+        int[] typeCounts;
+
+        /** アカウントタイプのIDとラベル名の対応表 */
+        String[] typeLabels;
+
+        /** 見つかったアカウントタイプのIDの最大値+1 */
+        int typeLimit;
+
+        /** この走査で見つかったアカウントタイプとIDの対応表（{@link AccountTypeTable}のロックを避ける） */
+        final Map<String, Integer> localIds;
+
+        /** 直前のアカウントのアカウントタイプ（同じタイプが続くことが多い） */
+        String lastType;
+
+        /** 直前のアカウントのアカウントタイプのID */
+        int lastId;
+
+        GroupingVisitor(BitSet hiddenIds, int typeCount) {
+            final int capacity = Math.max(typeCount, 16);
+            this.grouper = new AccountGrouper();
+            this.hiddenIds = hiddenIds;
+            this.typeGroups = new int[capacity];
+            this.typeCounts = new int[capacity];
+            this.typeLabels = new String[capacity];
+            // 作り直しでゴミが増えないように、既知のアカウントタイプの数で確保しておく
+            this.localIds = new HashMap<>(capacity * 2);
+        }
+
+        @Override
+        public boolean visit(String type, String name) {
+            if (mCanceled) {
+                return false;
+            }
+
+            final int id = intern(type);
+            if (id >= typeGroups.length) {
+                final int capacity = Math.max(id + 1, typeGroups.length * 2);
+                typeGroups = Arrays.copyOf(typeGroups, capacity);
+                typeCounts = Arrays.copyOf(typeCounts, capacity);
+                typeLabels = Arrays.copyOf(typeLabels, capacity);
+            }
+            if (id >= typeLimit) {
+                typeLimit = id + 1;
+            }
+            typeCounts[id]++;
+
+            int group = typeGroups[id];
+            if (group == GROUP_UNRESOLVED) {
+                group = resolveGroup(id, type);
+                typeGroups[id] = group;
+            }
+            if (group != GROUP_SKIPPED) {
+                grouper.add(group - 1, name);
+            }
+            return true;
+        }
+
+        /**
+         * アカウントタイプのIDを取得する。<br>
+         * {@link AccountTypeTable}はタイプごとに1回だけ参照し、直前と同じタイプの場合はハッシュも計算しない。
+         */
+        private int intern(String type) {
+            if (type.equals(lastType)) {
+                return lastId;
+            }
+            Integer id = localIds.get(type);
+            if (id == null) {
+                id = mTypeTable.intern(type);
+                localIds.put(type, id);
+            }
+            lastType = type;
+            lastId = id;
+            return id;
+        }
+
+        private int resolveGroup(int id, String type) {
+            // 設定画面で選べるように、非表示アカウントのラベル名も取得しておく
+            final String label = mLabelResolver.getLabel(type);
+            // サービス名が取得できない場合
+            if (label == null || label.isEmpty()) {
+                return GROUP_SKIPPED;
+            }
+            typeLabels[id] = label;
+
+            // 非表示アカウントの場合
+            if (hiddenIds.get(id)) {
+                return GROUP_SKIPPED;
+            }
+            return grouper.getGroup(label, type) + 1;
+        }
+
+        /**
+         * ラベル名を取得できたアカウントタイプをラベル名順に並べた一覧を作成する
+         */
+        AccountTypeCatalog buildCatalog() {
+            int size = 0;
+            for (int id = 0; id < typeLimit; id++) {
+                if (typeLabels[id] != null) {
+                    size++;
+                }
+            }
+
+            final Integer[] ids = new Integer[size];
+            for (int id = 0, i = 0; id < typeLimit; id++) {
+                if (typeLabels[id] != null) {
+                    ids[i++] = id;
+                }
+            }
+            // グループと同じ照合順序で並べる
+            final SortKeyCache sortKeys = SortKeyCache.getInstance();
+            final byte[][] keys = new byte[typeLimit][];
+            for (Integer id : ids) {
+                keys[id] = sortKeys.getKey(typeLabels[id]);
+            }
+            Arrays.sort(ids, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer lhs, Integer rhs) {
+                    final int result = SortKeyCache.compare(keys[lhs], keys[rhs]);
+                    return result != 0 ? result : mTypeTable.getType(lhs).compareTo(mTypeTable.getType(rhs));
+                }
+            });
+
+            final String[] types = new String[size];
+            final String[] labels = new String[size];
+            final int[] counts = new int[size];
+            for (int i = 0; i < size; i++) {
+                types[i] = mTypeTable.getType(ids[i]);
+                labels[i] = typeLabels[ids[i]];
+                counts[i] = typeCounts[ids[i]];
+            }
+            return new AccountTypeCatalog(types, labels, counts);
+        }
+    }
+}
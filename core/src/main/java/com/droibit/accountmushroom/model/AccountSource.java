@@ -0,0 +1,32 @@
+package com.droibit.accountmushroom.model;
+
+/**
+ * グルーピングするアカウントを読み込むためのインターフェース。<br>
+ * 端末では{@code AccountManager}から、ベンチマークでは生成したデータから読み込む。
+ *
+ * @author kumagai
+ */
+public interface AccountSource {
+
+    /**
+     * 読み込んだアカウントを受け取るためのインターフェース
+     */
+    interface Visitor {
+
+        /**
+         * アカウントを受け取る
+         *
+         * @param type アカウントタイプ
+         * @param name アカウント名
+         * @return 読み込みを続ける場合は{@code true}
+         */
+        boolean visit(String type, String name);
+    }
+
+    /**
+     * 全てのアカウントを順に読み込む
+     *
+     * @param visitor アカウントを受け取るインターフェース
+     */
+    void forEachAccount(Visitor visitor);
+}
@@ -0,0 +1,81 @@
+package com.droibit.accountmushroom.model;
+
+/**
+ * 端末に存在するアカウントタイプの一覧。<br>
+ * アカウントタイプ、ラベル名、アカウント数をラベル名順に保持する。
+ * 非表示にするアカウントタイプも含むので、設定画面の選択肢にそのまま使える。
+ *
+ * @author kumagai
+ */
+public final class AccountTypeCatalog {
+
+    private static final String[] EMPTY_STRINGS = new String[0];
+
+    private final String[] mTypes;
+
+    private final String[] mLabels;
+
+    private final int[] mAccountCounts;
+
+    /**
+     * 空の一覧を作成する
+     */
+    public AccountTypeCatalog() {
+        this(EMPTY_STRINGS, EMPTY_STRINGS, new int[0]);
+    }
+
+    /**
+     * 新しいインスタンスを作成する
+     *
+     * @param types アカウントタイプ
+     * @param labels ラベル名
+     * @param accountCounts アカウント数
+     */
+    public AccountTypeCatalog(String[] types, String[] labels, int[] accountCounts) {
+        if (labels.length != types.length || accountCounts.length != types.length) {
+            throw new IllegalArgumentException("Types, labels and counts must have the same length.");
+        }
+        mTypes = types;
+        mLabels = labels;
+        mAccountCounts = accountCounts;
+    }
+
+    /**
+     * アカウントタイプの数を取得する
+     *
+     * @return アカウントタイプの数
+     */
+    public int size() {
+        return mTypes.length;
+    }
+
+    /**
+     * アカウントタイプを取得する
+     *
+     * @param position 一覧内の位置
+     * @return アカウントタイプ
+     */
+    public String getType(int position) {
+        return mTypes[position];
+    }
+
+    /**
+     * ラベル名を取得する
+     *
+     * @param position 一覧内の位置
+     * @return ラベル名
+     */
+    public String getLabel(int position) {
+        return mLabels[position];
+    }
+
+    /**
+     * アカウント数を取得する
+     *
+     * @param position 一覧内の位置
+     * @return アカウント数
+     */
+    public int getAccountCount(int position) {
+        return mAccountCounts[position];
+    }
+}
@@ -0,0 +1,104 @@
+package com.droibit.accountmushroom.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * アカウントタイプに小さな整数のIDを割り当て、非表示にするアカウントタイプをビットセットで保持するクラス。<br>
+ * 一度割り当てたIDは変わらないので、IDで引く配列をアカウントタイプの表として使える。
+ *
+ * @author kumagai
+ */
+public final class AccountTypeTable {
+
+    /** アカウントタイプとIDの対応表 */
+    private final Map<String, Integer> mIds;
+
+    /** IDの順に並べたアカウントタイプ */
+    private final List<String> mTypes;
+
+    /** 非表示にするアカウントタイプのID */
+    private final BitSet mHidden;
+
+    /**
+     * 新しいインスタンスを作成する
+     */
+    public AccountTypeTable() {
+        mIds = new HashMap<>();
+        mTypes = new ArrayList<>();
+        mHidden = new BitSet();
+    }
+
+    /**
+     * アカウントタイプのIDを取得する。<br>
+     * 初めてのアカウントタイプの場合は新しいIDを割り当てる。
+     *
+     * @param type アカウントタイプ
+     * @return 0から始まるID
+     */
+    public synchronized int intern(String type) {
+        final Integer id = mIds.get(type);
+        if (id != null) {
+            return id;
+        }
+        final int newId = mTypes.size();
+        mIds.put(type, newId);
+        mTypes.add(type);
+        return newId;
+    }
+
+    /**
+     * IDに対応するアカウントタイプを取得する
+     *
+     * @param id {@link #intern(String)}で取得したID
+     * @return アカウントタイプ
+     */
+    public synchronized String getType(int id) {
+        return mTypes.get(id);
+    }
+
+    /**
+     * 割り当てたIDの数を取得する
+     *
+     * @return IDの数
+     */
+    public synchronized int size() {
+        return mTypes.size();
+    }
+
+    /**
+     * 非表示にするアカウントタイプを設定する
+     *
+     * @param types 非表示にするアカウントタイプ
+     */
+    public synchronized void setHiddenTypes(Collection<String> types) {
+        mHidden.clear();
+        for (String type : types) {
+            mHidden.set(intern(type));
+        }
+    }
+
+    /**
+     * 非表示にするアカウントタイプかどうか
+     *
+     * @param id {@link #intern(String)}で取得したID
+     * @return 非表示にする場合は{@code true}
+     */
+    public synchronized boolean isHidden(int id) {
+        return mHidden.get(id);
+    }
+
+    /**
+     * 非表示にするアカウントタイプのIDを取得する。<br>
+     * 作成中に設定が変わっても影響しないように、呼び出した時点の複製を返す。
+     *
+     * @return 非表示にするアカウントタイプのIDのビットセット
+     */
+    public synchronized BitSet getHiddenIds() {
+        return (BitSet) mHidden.clone();
+    }
+}
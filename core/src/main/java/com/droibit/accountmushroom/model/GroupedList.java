@@ -0,0 +1,325 @@
+package com.droibit.accountmushroom.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code android.widget.ExpandableListView}で表示する親グループと子アイテムを格納するクラス。<br>
+ * 子アイテムは1つの配列にまとめて保持し、グループごとの開始位置をオフセットの配列で管理する。<br>
+ * 保存したファイルを直接参照する{@link MappedGroupedList}は、取得するメソッドを上書きする。
+ *
+ * @author kumagai
+ */
+public class GroupedList {
+
+    private static final String[] EMPTY_STRINGS = new String[0];
+
+    private static final int[] EMPTY_OFFSETS = new int[] { 0 };
+
+    /** 親グループのタイトル */
+    private final String[] mGroupTitles;
+
+    /** 親グループを代表するアカウントタイプ */
+    private final String[] mGroupTypes;
+
+    /** 各グループの子アイテムの開始位置（要素数はグループ数+1） */
+    private final int[] mGroupOffsets;
+
+    /** 全グループの子アイテム */
+    private final String[] mChildren;
+
+    /** アカウントタイプの一覧 */
+    private AccountTypeCatalog mCatalog;
+
+    /** 検索用のインデックス（必要になった時点で作成する） */
+    private AccountIndex mIndex;
+
+    /** 削除されたため選択できない子アイテムの位置（全グループを通した位置） */
+    private BitSet mUnavailable;
+
+    /**
+     * 新しいインスタンスを作成する
+     */
+    public GroupedList() {
+        this(EMPTY_STRINGS, EMPTY_OFFSETS, EMPTY_STRINGS);
+    }
+
+    /**
+     * 新しいインスタンスを作成する
+     *
+     * @param groupTitles 親グループのタイトル
+     * @param groupOffsets 各グループの子アイテムの開始位置（要素数はグループ数+1）
+     * @param children 全グループの子アイテム
+     */
+    public GroupedList(String[] groupTitles, int[] groupOffsets, String[] children) {
+        this(groupTitles, new String[groupTitles.length], groupOffsets, children);
+    }
+
+    /**
+     * 新しいインスタンスを作成する
+     *
+     * @param groupTitles 親グループのタイトル
+     * @param groupTypes 親グループを代表するアカウントタイプ（不明な場合は要素が{@code null}）
+     * @param groupOffsets 各グループの子アイテムの開始位置（要素数はグループ数+1）
+     * @param children 全グループの子アイテム
+     */
+    public GroupedList(String[] groupTitles, String[] groupTypes, int[] groupOffsets, String[] children) {
+        if (groupTypes.length != groupTitles.length
+                || groupOffsets.length != groupTitles.length + 1
+                || groupOffsets[groupTitles.length] != children.length) {
+            throw new IllegalArgumentException("Offsets do not match groups and children.");
+        }
+        mGroupTitles = groupTitles;
+        mGroupTypes = groupTypes;
+        mGroupOffsets = groupOffsets;
+        mChildren = children;
+    }
+
+    /**
+     * 親グループの数を取得する
+     *
+     * @return 親グループの数
+     */
+    public int getGroupCount() {
+        return mGroupTitles.length;
+    }
+
+    /**
+     * 親グループのタイトルを取得する
+     *
+     * @param groupPosition グループの位置
+     * @return グループのタイトル
+     */
+    public String getGroup(int groupPosition) {
+        return mGroupTitles[groupPosition];
+    }
+
+    /**
+     * 親グループを代表するアカウントタイプを取得する。<br>
+     * 同じラベル名のアカウントタイプが複数ある場合は、最初に追加されたアカウントタイプを返す。
+     *
+     * @param groupPosition グループの位置
+     * @return アカウントタイプ。不明な場合は{@code null}
+     */
+    public String getGroupType(int groupPosition) {
+        return mGroupTypes[groupPosition];
+    }
+
+    /**
+     * 親グループに含まれる子アイテムの数を取得する
+     *
+     * @param groupPosition グループの位置
+     * @return 子アイテムの数
+     */
+    public int getChildrenCount(int groupPosition) {
+        return mGroupOffsets[groupPosition + 1] - mGroupOffsets[groupPosition];
+    }
+
+    /**
+     * 子アイテムを取得する
+     *
+     * @param groupPosition グループの位置
+     * @param childPosition グループ内での子アイテムの位置
+     * @return 子アイテムのタイトル
+     */
+    public String getChild(int groupPosition, int childPosition) {
+        return mChildren[getFlatPosition(groupPosition, childPosition)];
+    }
+
+    /**
+     * 全グループを通した位置で子アイテムを取得する
+     *
+     * @param flatPosition 全グループを通した子アイテムの位置
+     * @return 子アイテムのタイトル
+     */
+    public String getChildAt(int flatPosition) {
+        return mChildren[flatPosition];
+    }
+
+    /**
+     * 全グループを通した子アイテムの位置を取得する
+     *
+     * @param groupPosition グループの位置
+     * @param childPosition グループ内での子アイテムの位置
+     * @return 全グループを通した子アイテムの位置
+     */
+    public int getFlatPosition(int groupPosition, int childPosition) {
+        return mGroupOffsets[groupPosition] + childPosition;
+    }
+
+    /**
+     * 全グループの子アイテムの数を取得する
+     *
+     * @return 子アイテムの数
+     */
+    public int getTotalChildrenCount() {
+        return mChildren.length;
+    }
+
+    /**
+     * 子アイテムを選択できるかどうか
+     *
+     * @param flatPosition 全グループを通した子アイテムの位置
+     * @return 選択できる場合は{@code true}。削除されたアカウントの場合は{@code false}
+     */
+    public boolean isAvailable(int flatPosition) {
+        return mUnavailable == null || !mUnavailable.get(flatPosition);
+    }
+
+    /**
+     * 最新のアカウント情報に、表示中のリストから削除された子アイテムを選択できない状態で残したリストを作成する。<br>
+     * 削除された子アイテムとグループは、表示中のリストでの前後関係を保った位置に挿入する。
+     *
+     * @param displayed 表示中のリスト
+     * @param latest 最新のアカウント情報
+     * @return 作成したリスト。削除された子アイテムがない場合は{@code latest}
+     */
+    public static GroupedList mergeRemoved(GroupedList displayed, GroupedList latest) {
+        final Map<String, Integer> latestGroups = new HashMap<>(latest.getGroupCount() * 2);
+        for (int i = 0, count = latest.getGroupCount(); i < count; i++) {
+            latestGroups.put(latest.getGroup(i), i);
+        }
+        final Map<String, Integer> displayedGroups = new HashMap<>(displayed.getGroupCount() * 2);
+        for (int i = 0, count = displayed.getGroupCount(); i < count; i++) {
+            displayedGroups.put(displayed.getGroup(i), i);
+        }
+
+        final List<String> titles = new ArrayList<>();
+        final List<String> types = new ArrayList<>();
+        final List<String> children = new ArrayList<>();
+        final List<Integer> offsets = new ArrayList<>();
+        final BitSet unavailable = new BitSet();
+
+        int next = 0;
+        for (int oldGroup = 0, count = displayed.getGroupCount(); oldGroup < count; oldGroup++) {
+            final Integer latestGroup = latestGroups.get(displayed.getGroup(oldGroup));
+            if (latestGroup == null) {
+                // グループごと削除された場合
+                offsets.add(children.size());
+                titles.add(displayed.getGroup(oldGroup));
+                types.add(displayed.getGroupType(oldGroup));
+                final int first = displayed.getFlatPosition(oldGroup, 0);
+                for (int i = 0, size = displayed.getChildrenCount(oldGroup); i < size; i++) {
+                    unavailable.set(children.size());
+                    children.add(displayed.getChildAt(first + i));
+                }
+                continue;
+            }
+            // 前後関係が変わっていた場合は最新のリストの順番を優先する（既に追加したグループは飛ばす）
+            for (; next <= latestGroup; next++) {
+                offsets.add(children.size());
+                titles.add(latest.getGroup(next));
+                types.add(latest.getGroupType(next));
+                // 表示中のリストでは後ろにあったグループも、削除された子アイテムを残す
+                final Integer displayedGroup = displayedGroups.get(latest.getGroup(next));
+                if (displayedGroup != null) {
+                    mergeChildren(displayed, displayedGroup, latest, next, children, unavailable);
+                } else {
+                    addChildren(latest, next, children);
+                }
+            }
+        }
+        for (int count = latest.getGroupCount(); next < count; next++) {
+            offsets.add(children.size());
+            titles.add(latest.getGroup(next));
+            types.add(latest.getGroupType(next));
+            addChildren(latest, next, children);
+        }
+        if (unavailable.isEmpty()) {
+            return latest;
+        }
+        offsets.add(children.size());
+
+        final int[] groupOffsets = new int[offsets.size()];
+        for (int i = 0; i < groupOffsets.length; i++) {
+            groupOffsets[i] = offsets.get(i);
+        }
+        final GroupedList merged = new GroupedList(titles.toArray(new String[titles.size()]),
+                types.toArray(new String[types.size()]), groupOffsets,
+                children.toArray(new String[children.size()]));
+        merged.mUnavailable = unavailable;
+        merged.setCatalog(latest.getCatalog());
+        return merged;
+    }
+
+    private static void mergeChildren(GroupedList displayed, int oldGroup, GroupedList latest, int latestGroup,
+                                      List<String> children, BitSet unavailable) {
+        final int latestFirst = latest.getFlatPosition(latestGroup, 0);
+        final int latestCount = latest.getChildrenCount(latestGroup);
+        final Map<String, Integer> latestChildren = new HashMap<>(latestCount * 2);
+        for (int i = 0; i < latestCount; i++) {
+            latestChildren.put(latest.getChildAt(latestFirst + i), i);
+        }
+
+        int next = 0;
+        final int oldFirst = displayed.getFlatPosition(oldGroup, 0);
+        for (int i = 0, count = displayed.getChildrenCount(oldGroup); i < count; i++) {
+            final String child = displayed.getChildAt(oldFirst + i);
+            final Integer position = latestChildren.get(child);
+            if (position == null) {
+                unavailable.set(children.size());
+                children.add(child);
+                continue;
+            }
+            for (; next <= position; next++) {
+                children.add(latest.getChildAt(latestFirst + next));
+            }
+        }
+        for (; next < latestCount; next++) {
+            children.add(latest.getChildAt(latestFirst + next));
+        }
+    }
+
+    private static void addChildren(GroupedList groupedList, int groupPosition, List<String> children) {
+        final int first = groupedList.getFlatPosition(groupPosition, 0);
+        for (int i = 0, count = groupedList.getChildrenCount(groupPosition); i < count; i++) {
+            children.add(groupedList.getChildAt(first + i));
+        }
+    }
+
+    /**
+     * 非表示のものも含めたアカウントタイプの一覧を取得する
+     *
+     * @return アカウントタイプの一覧。作成されていない場合は空の一覧
+     */
+    public synchronized AccountTypeCatalog getCatalog() {
+        if (mCatalog == null) {
+            mCatalog = new AccountTypeCatalog();
+        }
+        return mCatalog;
+    }
+
+    /**
+     * アカウントタイプの一覧を設定する
+     *
+     * @param catalog {@link AccountListBuilder}がグルーピングと同時に作成した一覧
+     */
+    synchronized void setCatalog(AccountTypeCatalog catalog) {
+        mCatalog = catalog;
+    }
+
+    /**
+     * 検索用のインデックスを取得する。<br>
+     * 初回はインデックスを作成するので、なるべくバックグラウンドで呼び出しておく。
+     *
+     * @return 検索用のインデックス
+     */
+    public synchronized AccountIndex getIndex() {
+        if (mIndex == null) {
+            mIndex = new AccountIndex(this);
+        }
+        return mIndex;
+    }
+
+    /**
+     * アカウントが存在しないかどうか
+     *
+     * @return 存在しない場合は{@code true}
+     */
+    public boolean isEmpty() {
+        return mGroupTitles.length == 0;
+    }
+}
@@ -0,0 +1,161 @@
+package com.droibit.accountmushroom.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 2つの{@link GroupedList}の差分。<br>
+ * グループはタイトルで対応付け、追加・削除されたグループと、子アイテムが挿入・削除されたグループを求める。
+ * 子アイテムが変わっていないグループは配列の比較だけで済ませ、変わったグループだけ集合で比較する。
+ *
+ * @author kumagai
+ */
+public final class GroupedListDiff {
+
+    /** 対応するグループがない */
+    public static final int NO_POSITION = -1;
+
+    /** 古いリストのグループの位置と新しいリストのグループの位置の対応表 */
+    private final int[] mOldToNew;
+
+    /** 新しいリストのグループの位置と古いリストのグループの位置の対応表 */
+    private final int[] mNewToOld;
+
+    private int mChangedGroupCount;
+
+    private int mInsertedChildCount;
+
+    private int mRemovedChildCount;
+
+    private GroupedListDiff(int oldGroupCount, int newGroupCount) {
+        mOldToNew = new int[oldGroupCount];
+        mNewToOld = new int[newGroupCount];
+        Arrays.fill(mOldToNew, NO_POSITION);
+        Arrays.fill(mNewToOld, NO_POSITION);
+    }
+
+    /**
+     * 差分を求める
+     *
+     * @param oldList 古いリスト
+     * @param newList 新しいリスト
+     * @return 差分
+     */
+    public static GroupedListDiff compute(GroupedList oldList, GroupedList newList) {
+        final int oldGroupCount = oldList.getGroupCount();
+        final int newGroupCount = newList.getGroupCount();
+        final GroupedListDiff diff = new GroupedListDiff(oldGroupCount, newGroupCount);
+
+        final Map<String, Integer> oldGroups = new HashMap<>(oldGroupCount * 2);
+        for (int i = 0; i < oldGroupCount; i++) {
+            oldGroups.put(oldList.getGroup(i), i);
+        }
+
+        for (int newGroup = 0; newGroup < newGroupCount; newGroup++) {
+            final Integer oldGroup = oldGroups.get(newList.getGroup(newGroup));
+            if (oldGroup == null) {
+                diff.mInsertedChildCount += newList.getChildrenCount(newGroup);
+                continue;
+            }
+            diff.mOldToNew[oldGroup] = newGroup;
+            diff.mNewToOld[newGroup] = oldGroup;
+            diff.compareChildren(oldList, oldGroup, newList, newGroup);
+        }
+
+        for (int oldGroup = 0; oldGroup < oldGroupCount; oldGroup++) {
+            if (diff.mOldToNew[oldGroup] == NO_POSITION) {
+                diff.mRemovedChildCount += oldList.getChildrenCount(oldGroup);
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * 古いリストのグループに対応する新しいリストのグループの位置を取得する
+     *
+     * @param oldGroupPosition 古いリストのグループの位置
+     * @return 新しいリストのグループの位置。削除された場合は{@link #NO_POSITION}
+     */
+    public int getNewGroupPosition(int oldGroupPosition) {
+        return mOldToNew[oldGroupPosition];
+    }
+
+    /**
+     * 新しいリストのグループに対応する古いリストのグループの位置を取得する
+     *
+     * @param newGroupPosition 新しいリストのグループの位置
+     * @return 古いリストのグループの位置。追加された場合は{@link #NO_POSITION}
+     */
+    public int getOldGroupPosition(int newGroupPosition) {
+        return mNewToOld[newGroupPosition];
+    }
+
+    /**
+     * 両方のリストに存在し、子アイテムが変わったグループの数を取得する
+     *
+     * @return グループの数
+     */
+    public int getChangedGroupCount() {
+        return mChangedGroupCount;
+    }
+
+    /**
+     * 挿入された子アイテムの数を取得する（追加されたグループの子アイテムを含む）
+     *
+     * @return 子アイテムの数
+     */
+    public int getInsertedChildCount() {
+        return mInsertedChildCount;
+    }
+
+    /**
+     * 削除された子アイテムの数を取得する（削除されたグループの子アイテムを含む）
+     *
+     * @return 子アイテムの数
+     */
+    public int getRemovedChildCount() {
+        return mRemovedChildCount;
+    }
+
+    /**
+     * 差分がないかどうか
+     *
+     * @return 全てのグループと子アイテムが同じ場合は{@code true}
+     */
+    public boolean isEmpty() {
+        return mInsertedChildCount == 0 && mRemovedChildCount == 0 && mChangedGroupCount == 0
+                && mOldToNew.length == mNewToOld.length;
+    }
+
+    private void compareChildren(GroupedList oldList, int oldGroup, GroupedList newList, int newGroup) {
+        final int oldCount = oldList.getChildrenCount(oldGroup);
+        final int newCount = newList.getChildrenCount(newGroup);
+        if (oldCount == newCount) {
+            boolean same = true;
+            for (int i = 0; i < oldCount && same; i++) {
+                same = oldList.getChild(oldGroup, i).equals(newList.getChild(newGroup, i));
+            }
+            if (same) {
+                return;
+            }
+        }
+
+        mChangedGroupCount++;
+        final Set<String> oldChildren = new HashSet<>(oldCount * 2);
+        for (int i = 0; i < oldCount; i++) {
+            oldChildren.add(oldList.getChild(oldGroup, i));
+        }
+        int retained = 0;
+        for (int i = 0; i < newCount; i++) {
+            if (oldChildren.contains(newList.getChild(newGroup, i))) {
+                retained++;
+            } else {
+                mInsertedChildCount++;
+            }
+        }
+        mRemovedChildCount += oldCount - retained;
+    }
+}
@@ -0,0 +1,17 @@
+package com.droibit.accountmushroom.model;
+
+/**
+ * アカウントタイプに対応するラベル名を取得するためのインターフェース
+ *
+ * @author kumagai
+ */
+public interface LabelResolver {
+
+    /**
+     * アカウントタイプに対応するラベル名を取得する
+     *
+     * @param accountType アカウントタイプ
+     * @return ラベル名。取得できない場合は{@code null}
+     */
+    String getLabel(String accountType);
+}
@@ -0,0 +1,161 @@
+package com.droibit.accountmushroom.model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SnapshotCodec}の形式で保存されたバッファを直接参照する{@link GroupedList}。<br>
+ * 文字列は取得された時点でUTF-8から変換し、変換した結果を保持する。
+ * 複数のスレッドから参照されても、同じ文字列を重複して変換するだけで結果は変わらない。
+ *
+ * @author kumagai
+ */
+final class MappedGroupedList extends GroupedList {
+
+    private final Strings mStrings;
+
+    private final ByteBuffer mBuffer;
+
+    /** グループのタイトルの番号の開始位置（バイト） */
+    private final int mGroupTitlesAt;
+
+    /** グループのアカウントタイプの番号の開始位置（バイト） */
+    private final int mGroupTypesAt;
+
+    /** 各グループの子アイテムの開始位置（要素数はグループ数+1） */
+    private final int[] mGroupOffsets;
+
+    /** 子アイテムの番号の開始位置（バイト） */
+    private final int mChildrenAt;
+
+    MappedGroupedList(Strings strings, ByteBuffer buffer, int groupTitlesAt, int groupTypesAt,
+                      int[] groupOffsets, int childrenAt) {
+        mStrings = strings;
+        mBuffer = buffer;
+        mGroupTitlesAt = groupTitlesAt;
+        mGroupTypesAt = groupTypesAt;
+        mGroupOffsets = groupOffsets;
+        mChildrenAt = childrenAt;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGroupCount() {
+        return mGroupOffsets.length - 1;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getGroup(int groupPosition) {
+        checkGroup(groupPosition);
+        return mStrings.get(mBuffer.getInt(mGroupTitlesAt + groupPosition * 4));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getGroupType(int groupPosition) {
+        checkGroup(groupPosition);
+        return mStrings.get(mBuffer.getInt(mGroupTypesAt + groupPosition * 4));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getChildrenCount(int groupPosition) {
+        return mGroupOffsets[groupPosition + 1] - mGroupOffsets[groupPosition];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getChild(int groupPosition, int childPosition) {
+        return getChildAt(getFlatPosition(groupPosition, childPosition));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getChildAt(int flatPosition) {
+        if (flatPosition < 0 || flatPosition >= getTotalChildrenCount()) {
+            throw new ArrayIndexOutOfBoundsException(flatPosition);
+        }
+        return mStrings.get(mBuffer.getInt(mChildrenAt + flatPosition * 4));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getFlatPosition(int groupPosition, int childPosition) {
+        return mGroupOffsets[groupPosition] + childPosition;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getTotalChildrenCount() {
+        return mGroupOffsets[mGroupOffsets.length - 1];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isEmpty() {
+        return getGroupCount() == 0;
+    }
+
+    private void checkGroup(int groupPosition) {
+        if (groupPosition < 0 || groupPosition >= getGroupCount()) {
+            throw new ArrayIndexOutOfBoundsException(groupPosition);
+        }
+    }
+
+    /**
+     * 重複を除いた文字列表。必要になった文字列だけを変換する
+     */
+    static final class Strings {
+
+        private final ByteBuffer mBuffer;
+
+        /** 文字列の開始位置の配列の位置（バイト） */
+        private final int mOffsetsAt;
+
+        /** 文字列の開始位置（バイト） */
+        private final int mDataAt;
+
+        /** 変換した文字列 */
+        private final String[] mDecoded;
+
+        Strings(ByteBuffer buffer, int count, int offsetsAt, int dataAt) {
+            mBuffer = buffer;
+            mOffsetsAt = offsetsAt;
+            mDataAt = dataAt;
+            mDecoded = new String[count];
+        }
+
+        /**
+         * 文字列を取得する
+         *
+         * @param id 文字列の番号
+         * @return 文字列。番号が{@link SnapshotCodec#NO_STRING}の場合は{@code null}
+         * @throws IndexOutOfBoundsException 番号や文字列の範囲が壊れている場合
+         */
+        String get(int id) {
+            if (id == SnapshotCodec.NO_STRING) {
+                return null;
+            }
+            String value = mDecoded[id];
+            if (value == null) {
+                value = decode(id);
+                mDecoded[id] = value;
+            }
+            return value;
+        }
+
+        private String decode(int id) {
+            final int from = mBuffer.getInt(mOffsetsAt + id * 4);
+            final int to = mBuffer.getInt(mOffsetsAt + id * 4 + 4);
+            if (from < 0 || to < from) {
+                throw new IndexOutOfBoundsException("Corrupted string " + id);
+            }
+            // 位置を変えないように複製して読む（他のスレッドと共有しているため）
+            final ByteBuffer source = mBuffer.duplicate();
+            source.position(mDataAt + from);
+            final byte[] bytes = new byte[to - from];
+            source.get(bytes);
+            return new String(bytes, SnapshotCodec.UTF_8);
+        }
+    }
+}
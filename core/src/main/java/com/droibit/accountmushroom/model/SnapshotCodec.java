@@ -0,0 +1,290 @@
+package com.droibit.accountmushroom.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * {@link GroupedList}と{@link AccountTypeCatalog}を保存するためのバイナリ形式。<br>
+ * ラベル名とアカウント名は重複を除いた文字列表にまとめ、グループと子アイテムは文字列表の番号の配列で表す。
+ * 読み込みは{@link java.nio.MappedByteBuffer}をそのまま参照し、文字列は取得された時点で変換する。
+ * <pre>
+ * ヘッダ   : magic, version, payloadのCRC32, payloadのバイト数
+ * payload : スタンプの番号, グループ数, 子アイテム数, 一覧の数, 文字列数,
+ *           グループのタイトル[], グループのアカウントタイプ[], グループの開始位置[グループ数+1],
+ *           子アイテム[], 一覧(アカウントタイプ, ラベル名, アカウント数)[],
+ *           文字列の開始位置[文字列数+1], 文字列(UTF-8)
+ * </pre>
+ * 作成した時の条件（ロケールや非表示にするアカウントタイプ）をスタンプとして一緒に保存し、
+ * 読み込む時にスタンプが異なる場合は使わない。
+ *
+ * @author kumagai
+ */
+public final class SnapshotCodec {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x4d534e50;
+
+    private static final int VERSION = 2;
+
+    /** ヘッダのバイト数 */
+    private static final int HEADER_SIZE = 16;
+
+    /** payloadの固定部分のバイト数 */
+    private static final int COUNTS_SIZE = 20;
+
+    /** 文字列がないことを表す番号 */
+    static final int NO_STRING = -1;
+
+    private SnapshotCodec() {
+    }
+
+    /**
+     * アカウント情報を書き込む
+     *
+     * @param out 書き込み先
+     * @param groupedList アカウント情報
+     * @param stamp 作成した時の条件
+     * @throws IOException 書き込みに失敗した場合
+     */
+    public static void write(OutputStream out, GroupedList groupedList, String stamp) throws IOException {
+        final StringTable strings = new StringTable();
+        final int stampId = strings.add(stamp);
+
+        final int groupCount = groupedList.getGroupCount();
+        final int childCount = groupedList.getTotalChildrenCount();
+        final AccountTypeCatalog catalog = groupedList.getCatalog();
+        final int catalogCount = catalog.size();
+
+        final int[] groupTitles = new int[groupCount];
+        final int[] groupTypes = new int[groupCount];
+        for (int i = 0; i < groupCount; i++) {
+            groupTitles[i] = strings.add(groupedList.getGroup(i));
+            groupTypes[i] = strings.add(groupedList.getGroupType(i));
+        }
+        final int[] children = new int[childCount];
+        for (int i = 0; i < childCount; i++) {
+            children[i] = strings.add(groupedList.getChildAt(i));
+        }
+        final int[] catalogEntries = new int[catalogCount * 3];
+        for (int i = 0; i < catalogCount; i++) {
+            catalogEntries[i * 3] = strings.add(catalog.getType(i));
+            catalogEntries[i * 3 + 1] = strings.add(catalog.getLabel(i));
+            catalogEntries[i * 3 + 2] = catalog.getAccountCount(i);
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeInt(stampId);
+        payload.writeInt(groupCount);
+        payload.writeInt(childCount);
+        payload.writeInt(catalogCount);
+        payload.writeInt(strings.size());
+        writeInts(payload, groupTitles);
+        writeInts(payload, groupTypes);
+        for (int i = 0; i <= groupCount; i++) {
+            payload.writeInt(i < groupCount ? groupedList.getFlatPosition(i, 0) : childCount);
+        }
+        writeInts(payload, children);
+        writeInts(payload, catalogEntries);
+        strings.writeTo(payload);
+        payload.flush();
+
+        final byte[] data = bytes.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+
+        final DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt((int) crc.getValue());
+        header.writeInt(data.length);
+        header.write(data);
+        header.flush();
+    }
+
+    /**
+     * アカウント情報を読み込む。<br>
+     * ヘッダと配列の範囲、チェックサムだけを検証し、文字列は取得された時点で変換する。
+     *
+     * @param buffer 読み込み元。返したアカウント情報から参照し続けるので、変更しないこと
+     * @param stamp 現在の条件
+     * @return アカウント情報。スタンプが異なる場合は{@code null}
+     * @throws IOException 形式が異なる、または壊れている場合
+     */
+    public static GroupedList read(ByteBuffer buffer, String stamp) throws IOException {
+        try {
+            return readChecked(buffer, stamp);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Corrupted snapshot.", e);
+        }
+    }
+
+    private static GroupedList readChecked(ByteBuffer buffer, String stamp) throws IOException {
+        final ByteBuffer header = buffer.duplicate();
+        if (header.remaining() < HEADER_SIZE + COUNTS_SIZE
+                || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Unknown snapshot format.");
+        }
+        final int checksum = header.getInt();
+        final int payloadSize = header.getInt();
+        if (payloadSize != header.remaining()) {
+            throw new IOException("Truncated snapshot.");
+        }
+
+        final ByteBuffer payload = header.slice();
+        final CRC32 crc = new CRC32();
+        final byte[] chunk = new byte[8192];
+        final ByteBuffer scan = payload.duplicate();
+        while (scan.hasRemaining()) {
+            final int length = Math.min(chunk.length, scan.remaining());
+            scan.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Snapshot checksum mismatch.");
+        }
+
+        final int stampId = payload.getInt(0);
+        final int groupCount = payload.getInt(4);
+        final int childCount = payload.getInt(8);
+        final int catalogCount = payload.getInt(12);
+        final int stringCount = payload.getInt(16);
+        final int maxCount = payloadSize / 4;
+        if (!inRange(groupCount, maxCount) || !inRange(childCount, maxCount)
+                || !inRange(catalogCount, maxCount / 3) || !inRange(stringCount, maxCount)) {
+            throw new IOException("Corrupted snapshot.");
+        }
+
+        final int groupTitlesAt = COUNTS_SIZE;
+        final int groupTypesAt = groupTitlesAt + groupCount * 4;
+        final int groupOffsetsAt = groupTypesAt + groupCount * 4;
+        final int childrenAt = groupOffsetsAt + (groupCount + 1) * 4;
+        final int catalogAt = childrenAt + childCount * 4;
+        final int stringOffsetsAt = catalogAt + catalogCount * 12;
+        final int stringDataAt = stringOffsetsAt + (stringCount + 1) * 4;
+        if (stringDataAt < 0 || stringDataAt > payloadSize
+                || payload.getInt(stringOffsetsAt + stringCount * 4) != payloadSize - stringDataAt) {
+            throw new IOException("Corrupted snapshot.");
+        }
+
+        // 文字列を変換する時に範囲外を参照しないように、番号と位置だけは先に確認しておく
+        int previous = 0;
+        for (int i = 0; i <= stringCount; i++) {
+            final int offset = payload.getInt(stringOffsetsAt + i * 4);
+            if (offset < previous) {
+                throw new IOException("Corrupted snapshot.");
+            }
+            previous = offset;
+        }
+        checkStringIds(payload, groupTitlesAt, groupCount * 2, 1, stringCount);
+        checkStringIds(payload, childrenAt, childCount, 1, stringCount);
+        checkStringIds(payload, catalogAt, catalogCount * 3, 3, stringCount);
+        checkStringIds(payload, catalogAt + 4, catalogCount * 3, 3, stringCount);
+
+        final MappedGroupedList.Strings strings =
+                new MappedGroupedList.Strings(payload, stringCount, stringOffsetsAt, stringDataAt);
+        if (!stamp.equals(strings.get(stampId))) {
+            return null;
+        }
+
+        final int[] groupOffsets = new int[groupCount + 1];
+        for (int i = 0; i <= groupCount; i++) {
+            groupOffsets[i] = payload.getInt(groupOffsetsAt + i * 4);
+            if (groupOffsets[i] < (i == 0 ? 0 : groupOffsets[i - 1])) {
+                throw new IOException("Corrupted snapshot.");
+            }
+        }
+        if (groupOffsets[groupCount] != childCount) {
+            throw new IOException("Corrupted snapshot.");
+        }
+
+        // 一覧は設定画面でしか使わず小さいので、ここで変換する
+        final String[] types = new String[catalogCount];
+        final String[] labels = new String[catalogCount];
+        final int[] counts = new int[catalogCount];
+        for (int i = 0; i < catalogCount; i++) {
+            types[i] = strings.get(payload.getInt(catalogAt + i * 12));
+            labels[i] = strings.get(payload.getInt(catalogAt + i * 12 + 4));
+            counts[i] = payload.getInt(catalogAt + i * 12 + 8);
+        }
+
+        final GroupedList groupedList = new MappedGroupedList(strings, payload,
+                groupTitlesAt, groupTypesAt, groupOffsets, childrenAt);
+        groupedList.setCatalog(new AccountTypeCatalog(types, labels, counts));
+        return groupedList;
+    }
+
+    private static boolean inRange(int count, int maxCount) {
+        return count >= 0 && count <= maxCount;
+    }
+
+    /**
+     * {@code step}個ごとに並んだ文字列の番号が範囲内か確認する
+     */
+    private static void checkStringIds(ByteBuffer payload, int at, int length, int step, int stringCount)
+            throws IOException {
+        for (int i = 0; i < length; i += step) {
+            final int id = payload.getInt(at + i * 4);
+            if (id < NO_STRING || id >= stringCount) {
+                throw new IOException("Corrupted snapshot.");
+            }
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * 書き込む文字列の重複を除いて番号を振る
+     */
+    private static final class StringTable {
+
+        final Map<String, Integer> ids = new HashMap<>();
+
+        final List<byte[]> encoded = new ArrayList<>();
+
+        int add(String value) {
+            if (value == null) {
+                return NO_STRING;
+            }
+            final Integer id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            final int newId = encoded.size();
+            ids.put(value, newId);
+            encoded.add(value.getBytes(UTF_8));
+            return newId;
+        }
+
+        int size() {
+            return encoded.size();
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            int offset = 0;
+            for (byte[] bytes : encoded) {
+                out.writeInt(offset);
+                offset += bytes.length;
+            }
+            out.writeInt(offset);
+            for (byte[] bytes : encoded) {
+                out.write(bytes);
+            }
+        }
+    }
+}
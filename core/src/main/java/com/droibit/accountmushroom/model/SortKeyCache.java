@@ -0,0 +1,132 @@
+package com.droibit.accountmushroom.model;
+
+import java.text.Collator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 現在のロケールの{@link Collator}で作成した並べ替え用のキーを保持するクラス。<br>
+ * 文字列ごとに{@link java.text.CollationKey}のバイト列を1回だけ作成し、
+ * 並べ替えではバイト列を比較するだけにする。ロケールが変わった場合は全て作り直す。
+ *
+ * @author kumagai
+ */
+public final class SortKeyCache {
+
+    /** 保持するキーの最大数。超えた場合は全て破棄する */
+    private static final int MAX_ENTRIES = 1 << 17;
+
+    private static final SortKeyCache sInstance = new SortKeyCache();
+
+    /** キーを作成したロケール */
+    private Locale mLocale;
+
+    private Collator mCollator;
+
+    /** 文字列とキーの対応表 */
+    private final Map<String, byte[]> mKeys;
+
+    /**
+     * インスタンスを取得する
+     *
+     * @return プロセスで共有するインスタンス
+     */
+    public static SortKeyCache getInstance() {
+        return sInstance;
+    }
+
+    private SortKeyCache() {
+        mKeys = new HashMap<>();
+    }
+
+    /**
+     * 文字列の並べ替え用のキーを取得する
+     *
+     * @param source 文字列
+     * @return キー。{@link #compare(byte[], byte[])}で比較する
+     */
+    public synchronized byte[] getKey(String source) {
+        checkLocale();
+        return getKeyLocked(source);
+    }
+
+    /**
+     * 配列の範囲の文字列について、並べ替え用のキーをまとめて取得する
+     *
+     * @param sources 文字列の配列
+     * @param from 開始位置
+     * @param to 終了位置（含まない）
+     * @param keys キーを格納する配列。{@code sources}と同じ位置に格納する
+     */
+    public synchronized void getKeys(String[] sources, int from, int to, byte[][] keys) {
+        checkLocale();
+        for (int i = from; i < to; i++) {
+            keys[i] = getKeyLocked(sources[i]);
+        }
+    }
+
+    /**
+     * 保持しているキーを全て破棄する
+     */
+    public synchronized void clear() {
+        mKeys.clear();
+        mLocale = null;
+        mCollator = null;
+    }
+
+    /**
+     * キーを比較する
+     *
+     * @param lhs キー
+     * @param rhs キー
+     * @return {@code lhs}が前の場合は負の値、同じ場合は0、後の場合は正の値
+     */
+    public static int compare(byte[] lhs, byte[] rhs) {
+        final int length = Math.min(lhs.length, rhs.length);
+        for (int i = 0; i < length; i++) {
+            final int result = (lhs[i] & 0xff) - (rhs[i] & 0xff);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return lhs.length - rhs.length;
+    }
+
+    /**
+     * キーの先頭8バイトを符号なしの順序で比較できる整数にする。<br>
+     * 整数が異なる場合は{@link #compare(byte[], byte[])}と同じ大小になる。
+     *
+     * @param key キー
+     * @return 先頭8バイト（足りない場合は0で埋める）
+     */
+    public static long getPrefix(byte[] key) {
+        long prefix = 0;
+        for (int i = 0; i < 8; i++) {
+            prefix = (prefix << 8) | (i < key.length ? key[i] & 0xff : 0);
+        }
+        return prefix;
+    }
+
+    private void checkLocale() {
+        final Locale locale = Locale.getDefault();
+        if (locale.equals(mLocale)) {
+            return;
+        }
+        mKeys.clear();
+        mLocale = locale;
+        mCollator = Collator.getInstance(locale);
+    }
+
+    private byte[] getKeyLocked(String source) {
+        byte[] key = mKeys.get(source);
+        if (key == null) {
+            if (mKeys.size() >= MAX_ENTRIES) {
+                mKeys.clear();
+            }
+            key = mCollator.getCollationKey(source).toByteArray();
+            mKeys.put(source, key);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,116 @@
+package com.droibit.accountmushroom.utils;
+
+/**
+ * 処理時間の分布を記録するヒストグラム。<br>
+ * 2のべき乗ごとの区間をさらに{@link #SUB_BUCKET_COUNT}分割した固定のバケットに数えるので、
+ * 記録するたびにメモリを確保せず、誤差は約12.5%以内に収まる。
+ *
+ * @author kumagai
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** 63ビットの値を表せるバケットの数 */
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final long[] mCounts;
+
+    private long mTotalCount;
+
+    private long mMaxNanos;
+
+    /**
+     * 新しいインスタンスを作成する
+     */
+    public LatencyHistogram() {
+        mCounts = new long[BUCKET_COUNT];
+    }
+
+    /**
+     * 処理時間を記録する
+     *
+     * @param nanos 処理時間（ナノ秒）
+     */
+    public synchronized void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mCounts[indexOf(nanos)]++;
+        mTotalCount++;
+        if (nanos > mMaxNanos) {
+            mMaxNanos = nanos;
+        }
+    }
+
+    /**
+     * 記録した回数を取得する
+     *
+     * @return 記録した回数
+     */
+    public synchronized long getTotalCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * 最大の処理時間を取得する
+     *
+     * @return 最大の処理時間（ナノ秒）
+     */
+    public synchronized long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    /**
+     * パーセンタイル値を取得する
+     *
+     * @param percentile パーセンタイル（0より大きく100以下）
+     * @return 処理時間（ナノ秒）。記録がない場合は0
+     */
+    public synchronized long getPercentileNanos(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+
+        final long target = Math.max(1, (long) Math.ceil(mTotalCount * percentile / 100));
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += mCounts[i];
+            if (count >= target) {
+                return Math.min(upperBoundOf(i), mMaxNanos);
+            }
+        }
+        return mMaxNanos;
+    }
+
+    /**
+     * 記録を全て消去する
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts[i] = 0;
+        }
+        mTotalCount = 0;
+        mMaxNanos = 0;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = magnitude - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+    }
+
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long lowerBound = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
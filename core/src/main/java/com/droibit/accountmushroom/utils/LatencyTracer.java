@@ -0,0 +1,131 @@
+package com.droibit.accountmushroom.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * マッシュルームの起動から一覧の表示までの処理時間を区間ごとに記録するクラス。<br>
+ * 区間ごとに{@link LatencyHistogram}を保持し、p50/p95/p99をレポートとして出力できる。
+ *
+ * @author kumagai
+ */
+public final class LatencyTracer {
+
+    /** 起動から一覧を表示するまで */
+    public static final String SPAN_LAUNCH = "launch";
+
+    /** {@code AccountManager#getAuthenticatorTypes()} */
+    public static final String SPAN_AUTHENTICATORS = "getAuthenticatorTypes";
+
+    /** {@code AccountManager#getAccounts()} */
+    public static final String SPAN_ACCOUNTS = "getAccounts";
+
+    /** アカウントタイプのラベル名の取得（後ろにアカウントタイプを付ける） */
+    public static final String SPAN_LABEL_PREFIX = "getLabelForType:";
+
+    /** グループの並べ替え */
+    public static final String SPAN_SORT = "sort";
+
+    /** {@code GroupedList}の作成 */
+    public static final String SPAN_BUILD_LIST = "buildGroupedList";
+
+    /** アダプタの作成と設定 */
+    public static final String SPAN_BIND_ADAPTER = "bindAdapter";
+
+    private static final ConcurrentMap<String, LatencyHistogram> sHistograms = new ConcurrentHashMap<>();
+
+    /** 記録するかどうか。アプリではデバッグビルドの場合だけ有効にする */
+    private static volatile boolean sEnabled;
+
+    private LatencyTracer() {
+    }
+
+    /**
+     * 記録するかどうかを設定する
+     *
+     * @param enabled 記録する場合は{@code true}
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * 区間の開始時刻を取得する
+     *
+     * @return 開始時刻（ナノ秒）。{@link #end(String, long)}に渡す
+     */
+    public static long begin() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * 区間の処理時間を記録する
+     *
+     * @param span 区間の名前
+     * @param startNanos {@link #begin()}で取得した開始時刻
+     */
+    public static void end(String span, long startNanos) {
+        if (!sEnabled || startNanos == 0) {
+            return;
+        }
+        record(span, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 区間の処理時間を記録する
+     *
+     * @param span 区間の名前
+     * @param nanos 処理時間（ナノ秒）
+     */
+    public static void record(String span, long nanos) {
+        LatencyHistogram histogram = sHistograms.get(span);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            final LatencyHistogram existing = sHistograms.putIfAbsent(span, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * 区間ごとの回数とパーセンタイル値をテキストで出力する
+     *
+     * @return レポート
+     */
+    public static String dump() {
+        final List<String> spans = new ArrayList<>(sHistograms.keySet());
+        Collections.sort(spans);
+
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "%-40s %7s %9s %9s %9s %9s%n",
+                "span", "count", "p50(ms)", "p95(ms)", "p99(ms)", "max(ms)"));
+        for (String span : spans) {
+            final LatencyHistogram histogram = sHistograms.get(span);
+            report.append(String.format(Locale.ROOT, "%-40s %7d %9.2f %9.2f %9.2f %9.2f%n",
+                    span,
+                    histogram.getTotalCount(),
+                    toMillis(histogram.getPercentileNanos(50)),
+                    toMillis(histogram.getPercentileNanos(95)),
+                    toMillis(histogram.getPercentileNanos(99)),
+                    toMillis(histogram.getMaxNanos())));
+        }
+        return report.toString();
+    }
+
+    /**
+     * 記録を全て消去する
+     */
+    public static void reset() {
+        sHistograms.clear();
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000000.0;
+    }
+}
@@ -0,0 +1,194 @@
+package com.droibit.accountmushroom.model;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * リストの作成、絞り込み、アダプタ用モデルの作成について、
+ * アロケーション量と処理時間が予算内に収まっているか確認する。<br>
+ * 予算を超えた場合は終了コード1で終了し、ビルドを失敗させる。<br>
+ * 処理時間はホストの負荷で長くなるだけなので、何回かに分けて計測した中央値のうち最も短いものを使い、
+ * 上限に{@link #LATENCY_NOISE_MARGIN}倍の余裕を持たせて比較する。
+ *
+ * @author kumagai
+ */
+public final class PerformanceBudgetCheck {
+
+    /** 計測前に実行する回数 */
+    private static final int WARMUP_RUNS = 30;
+
+    /** 1回の計測で実行する回数（処理時間は中央値を使う） */
+    private static final int MEASURED_RUNS = 15;
+
+    /** 計測する回数（処理時間は最も短い中央値を使う） */
+    private static final int MEASURED_ROUNDS = 5;
+
+    /** 処理時間の上限に持たせる余裕（他のプロセスの負荷による揺れを許容する） */
+    private static final double LATENCY_NOISE_MARGIN = 1.5;
+
+    /** 絞り込みで入力する文字列 */
+    private static final String QUERY = "abc.d";
+
+    /**
+     * 計測する処理
+     */
+    private interface Operation {
+
+        /**
+         * 処理を1回実行する
+         *
+         * @return 処理の単位数（アカウント数、入力文字数）
+         */
+        int run();
+    }
+
+    /**
+     * 処理ごとの予算
+     */
+    private static final class Budget {
+
+        final String name;
+
+        /** 単位あたりの最大アロケーション量（バイト） */
+        final double maxBytesPerUnit;
+
+        /** 単位あたりの最大処理時間（ナノ秒） */
+        final double maxNanosPerUnit;
+
+        Budget(String name, double maxBytesPerUnit, double maxNanosPerUnit) {
+            this.name = name;
+            this.maxBytesPerUnit = maxBytesPerUnit;
+            this.maxNanosPerUnit = maxNanosPerUnit;
+        }
+    }
+
+    /** {@link AccountListBuilder#build()}の予算（アカウントあたり） */
+    private static final Budget BUDGET_FETCH = new Budget("fetch", 64, 1000);
+
+    /**
+     * {@link AccountFilter#setQuery(CharSequence)}の予算（入力1文字あたり）。<br>
+     * 部分一致は2文字目の入力で全てのアカウント名を調べるので、アカウント数に比例する時間を見込む
+     */
+    private static final Budget BUDGET_FILTER = new Budget("filter", 128, 100000);
+
+    /** アダプタ用モデル（インデックスと絞り込み用の配列）作成の予算（アカウントあたり） */
+    private static final Budget BUDGET_MODEL = new Budget("model", 96, 10000);
+
+    private final com.sun.management.ThreadMXBean mThreadBean;
+
+    private final List<String> mFailures;
+
+    private PerformanceBudgetCheck() {
+        mThreadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        mThreadBean.setThreadAllocatedMemoryEnabled(true);
+        mFailures = new ArrayList<>();
+    }
+
+    public static void main(String[] args) {
+        final PerformanceBudgetCheck check = new PerformanceBudgetCheck();
+        check.checkScenario("uniform", new SyntheticAccountSource.Builder()
+                .accountCount(1000)
+                .typeCount(20)
+                .build());
+        check.checkScenario("skewed", new SyntheticAccountSource.Builder()
+                .accountCount(10000)
+                .typeCount(50)
+                .typeSkew(1.2)
+                .hiddenTypeRatio(0.2)
+                .build());
+        check.checkScenario("long-names", new SyntheticAccountSource.Builder()
+                .accountCount(5000)
+                .nameLength(64)
+                .build());
+        check.checkScenario("many-types", new SyntheticAccountSource.Builder()
+                .accountCount(2000)
+                .typeCount(500)
+                .hiddenTypeRatio(0.5)
+                .build());
+
+        if (!check.mFailures.isEmpty()) {
+            for (String failure : check.mFailures) {
+                System.err.println("Budget exceeded: " + failure);
+            }
+            System.exit(1);
+        }
+    }
+
+    private void checkScenario(String scenario, final SyntheticAccountSource source) {
+        final AccountTypeTable typeTable = new AccountTypeTable();
+        typeTable.setHiddenTypes(source.getHiddenTypes());
+        final GroupedList groupedList = new AccountListBuilder(source, source, typeTable).build();
+        final int accountCount = source.getAccountCount();
+
+        measure(scenario, BUDGET_FETCH, new Operation() {
+            @Override
+            public int run() {
+                new AccountListBuilder(source, source, typeTable).build();
+                return accountCount;
+            }
+        });
+
+        final AccountFilter filter = new AccountFilter(groupedList, true);
+        measure(scenario, BUDGET_FILTER, new Operation() {
+            @Override
+            public int run() {
+                // 1文字ずつ入力してから消す
+                for (int i = 1; i <= QUERY.length(); i++) {
+                    filter.setQuery(QUERY.subSequence(0, i));
+                }
+                filter.setQuery(null);
+                return QUERY.length();
+            }
+        });
+
+        measure(scenario, BUDGET_MODEL, new Operation() {
+            @Override
+            public int run() {
+                new AccountIndex(groupedList);
+                new AccountFilter(groupedList, true);
+                return accountCount;
+            }
+        });
+    }
+
+    private void measure(String scenario, Budget budget, Operation operation) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            operation.run();
+        }
+
+        final long threadId = Thread.currentThread().getId();
+        final long[] nanos = new long[MEASURED_RUNS];
+        long bytes = 0;
+        int units = 0;
+        long minMedian = Long.MAX_VALUE;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            for (int i = 0; i < MEASURED_RUNS; i++) {
+                final long startBytes = mThreadBean.getThreadAllocatedBytes(threadId);
+                final long startNanos = System.nanoTime();
+                units = operation.run();
+                nanos[i] = System.nanoTime() - startNanos;
+                bytes += mThreadBean.getThreadAllocatedBytes(threadId) - startBytes;
+            }
+            Arrays.sort(nanos);
+            minMedian = Math.min(minMedian, nanos[MEASURED_RUNS / 2]);
+        }
+
+        final double bytesPerUnit = (double) bytes / (MEASURED_ROUNDS * MEASURED_RUNS) / units;
+        final double nanosPerUnit = (double) minMedian / units;
+        final double maxNanosPerUnit = budget.maxNanosPerUnit * LATENCY_NOISE_MARGIN;
+        System.out.println(String.format(Locale.ROOT, "%-10s %-6s %10.1f B/unit (<= %.0f) %10.1f ns/unit (<= %.0f)",
+                scenario, budget.name, bytesPerUnit, budget.maxBytesPerUnit, nanosPerUnit, maxNanosPerUnit));
+
+        if (bytesPerUnit > budget.maxBytesPerUnit) {
+            mFailures.add(String.format(Locale.ROOT, "%s/%s allocates %.1f bytes per unit (budget %.0f)",
+                    scenario, budget.name, bytesPerUnit, budget.maxBytesPerUnit));
+        }
+        if (nanosPerUnit > maxNanosPerUnit) {
+            mFailures.add(String.format(Locale.ROOT, "%s/%s takes %.1f ns per unit (ceiling %.0f with margin)",
+                    scenario, budget.name, nanosPerUnit, maxNanosPerUnit));
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.droibit.accountmushroom.model;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * 性能計測用に生成したアカウントを返す{@link AccountSource}。<br>
+ * 同じ設定であれば常に同じアカウントを生成する。
+ *
+ * @author kumagai
+ */
+public final class SyntheticAccountSource implements AccountSource, LabelResolver {
+
+    /**
+     * {@link SyntheticAccountSource}を作成するためのビルダー
+     */
+    public static final class Builder {
+
+        private int mAccountCount = 1000;
+
+        private int mTypeCount = 20;
+
+        private double mTypeSkew;
+
+        private int mNameLength = 20;
+
+        private double mHiddenTypeRatio;
+
+        private long mSeed = 42L;
+
+        /**
+         * アカウントの数を設定する
+         */
+        public Builder accountCount(int accountCount) {
+            mAccountCount = accountCount;
+            return this;
+        }
+
+        /**
+         * アカウントタイプの数を設定する
+         */
+        public Builder typeCount(int typeCount) {
+            mTypeCount = typeCount;
+            return this;
+        }
+
+        /**
+         * アカウントタイプの偏りを設定する。<br>
+         * Zipf分布の指数で、0の場合は均等に、大きいほど先頭のタイプに偏る。
+         */
+        public Builder typeSkew(double typeSkew) {
+            mTypeSkew = typeSkew;
+            return this;
+        }
+
+        /**
+         * アカウント名の長さを設定する
+         */
+        public Builder nameLength(int nameLength) {
+            mNameLength = nameLength;
+            return this;
+        }
+
+        /**
+         * 非表示にするアカウントタイプの割合を設定する
+         */
+        public Builder hiddenTypeRatio(double hiddenTypeRatio) {
+            mHiddenTypeRatio = hiddenTypeRatio;
+            return this;
+        }
+
+        /**
+         * 乱数のシードを設定する
+         */
+        public Builder seed(long seed) {
+            mSeed = seed;
+            return this;
+        }
+
+        /**
+         * 設定した内容でアカウントを生成する
+         */
+        public SyntheticAccountSource build() {
+            return new SyntheticAccountSource(this);
+        }
+    }
+
+    private static final String NAME_CHARS = "abcdefghijklmnopqrstuvwxyz0123456789._";
+
+    private final String[] mTypes;
+
+    private final String[] mNames;
+
+    private final Map<String, String> mLabels;
+
+    private final Set<String> mHiddenTypes;
+
+    private SyntheticAccountSource(Builder builder) {
+        final Random random = new Random(builder.mSeed);
+        final int typeCount = builder.mTypeCount;
+        mTypes = new String[builder.mAccountCount];
+        mNames = new String[builder.mAccountCount];
+        mLabels = new HashMap<>(typeCount);
+        mHiddenTypes = new HashSet<>();
+
+        final String[] types = new String[typeCount];
+        final double[] cumulative = new double[typeCount];
+        double total = 0;
+        for (int i = 0; i < typeCount; i++) {
+            types[i] = "com.example.type" + i;
+            mLabels.put(types[i], "Service " + i);
+            total += 1 / Math.pow(i + 1, builder.mTypeSkew);
+            cumulative[i] = total;
+        }
+
+        // 偏りの少ないタイプから非表示にする
+        final int hiddenCount = (int) Math.round(typeCount * builder.mHiddenTypeRatio);
+        for (int i = typeCount - hiddenCount; i < typeCount; i++) {
+            mHiddenTypes.add(types[i]);
+        }
+
+        final StringBuilder name = new StringBuilder(builder.mNameLength);
+        for (int i = 0; i < builder.mAccountCount; i++) {
+            mTypes[i] = types[pickType(cumulative, random.nextDouble() * total)];
+
+            name.setLength(0);
+            for (int j = 0; j < builder.mNameLength; j++) {
+                name.append(NAME_CHARS.charAt(random.nextInt(NAME_CHARS.length())));
+            }
+            mNames[i] = name.toString();
+        }
+    }
+
+    /**
+     * アカウントの数を取得する
+     */
+    public int getAccountCount() {
+        return mTypes.length;
+    }
+
+    /**
+     * 非表示にするアカウントタイプを取得する
+     */
+    public Set<String> getHiddenTypes() {
+        return mHiddenTypes;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void forEachAccount(Visitor visitor) {
+        for (int i = 0; i < mTypes.length; i++) {
+            if (!visitor.visit(mTypes[i], mNames[i])) {
+                return;
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getLabel(String accountType) {
+        return mLabels.get(accountType);
+    }
+
+    private static int pickType(double[] cumulative, double value) {
+        int from = 0;
+        int to = cumulative.length - 1;
+        while (from < to) {
+            final int mid = (from + to) >>> 1;
+            if (cumulative[mid] < value) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+}